@@ -0,0 +1,474 @@
+package com.myokhttp;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发限制：根据观察到的 RTT 和错误，动态调整每个主机的并发上限
+ *
+ * 固定的 maxRequestsPerHost 对健康的后端太小，后端变慢时又太大，
+ * 多出来的请求只会在后端排队，拉高所有请求的延迟。
+ * 设置到 Dispatcher 后，每个主机的并发上限由这里决定（取代 maxRequestsPerHost），
+ * 同步请求和异步请求共用同一个上限。
+ *
+ * 算法：
+ * - AIMD：请求成功并且并发接近上限时增加 1/limit（大约每轮满并发 +1），
+ *   出错（IOException、429、503）时乘以 backoffRatio
+ * - GRADIENT：比较长期平均 RTT 和本次 RTT，RTT 变长说明后端开始排队，按比例缩小上限；
+ *   RTT 稳定时每次增加 sqrt(limit) 的余量；出错时同 AIMD 一样退避
+ *
+ * 样本是每一次网络尝试（建立连接到收到响应头）的耗时和结果，
+ * 不包括重试前的等待和重定向，一个请求重试几次就提交几个样本。
+ * 空闲（没有请求）超过 5 分钟的主机会被移除，之后从 initialLimit 重新开始
+ *
+ * 用法：
+ * <pre>
+ * client.dispatcher().setAdaptiveLimiter(new AdaptiveLimiter.Builder()
+ *     .algorithm(AdaptiveLimiter.Algorithm.GRADIENT)
+ *     .initialLimit(10)
+ *     .maxLimit(200)
+ *     .build());
+ * </pre>
+ */
+public final class AdaptiveLimiter {
+
+    /**
+     * 调整算法
+     */
+    public enum Algorithm {
+        AIMD,
+        GRADIENT
+    }
+
+    // 长期平均 RTT 的窗口（样本数）
+    private static final int LONG_WINDOW = 600;
+    // GRADIENT 每次调整的平滑系数
+    private static final double SMOOTHING = 0.2;
+    // 允许 RTT 比长期平均高出的比例，超过才开始缩小
+    private static final double RTT_TOLERANCE = 1.5;
+    // 空闲超过这么久的主机从 hosts 中移除
+    private static final long IDLE_HOST_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Algorithm algorithm;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long maxSyncWaitMillis;
+    private final int historySize;
+
+    private final Map<String, HostLimit> hosts = new ConcurrentHashMap<>();
+    // 下一次清理空闲主机的时间
+    private final AtomicLong nextPruneAt = new AtomicLong(System.nanoTime() + IDLE_HOST_NANOS);
+
+    private AdaptiveLimiter(Builder builder) {
+        this.algorithm = builder.algorithm;
+        this.initialLimit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.backoffRatio = builder.backoffRatio;
+        this.maxSyncWaitMillis = builder.maxSyncWaitMillis;
+        this.historySize = builder.historySize;
+    }
+
+    public Algorithm algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * 主机当前的并发上限
+     */
+    public int limit(String host) {
+        HostLimit hostLimit = hosts.get(host);
+        return hostLimit != null ? hostLimit.currentLimit() : initialLimit;
+    }
+
+    /**
+     * 主机当前正在执行的请求数
+     */
+    public int inFlight(String host) {
+        HostLimit hostLimit = hosts.get(host);
+        return hostLimit != null ? hostLimit.inFlight() : 0;
+    }
+
+    /**
+     * 所有主机当前的并发上限，按主机名排序
+     */
+    public Map<String, Integer> limits() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (HostLimit hostLimit : hosts.values()) {
+            result.put(hostLimit.host, hostLimit.currentLimit());
+        }
+        return result;
+    }
+
+    /**
+     * 主机并发上限最近的变化，按时间先后排列，最多保留 historySize 条
+     */
+    public List<LimitChange> history(String host) {
+        HostLimit hostLimit = hosts.get(host);
+        return hostLimit != null ? hostLimit.history() : Collections.<LimitChange>emptyList();
+    }
+
+    /**
+     * 不等待地占用一个名额
+     */
+    boolean tryAcquire(String host) {
+        while (true) {
+            HostLimit hostLimit = hostLimit(host);
+            hostLimit.lock.lock();
+            try {
+                if (!hostLimit.retired) {
+                    return hostLimit.tryAcquire();
+                }
+            } finally {
+                hostLimit.lock.unlock();
+            }
+            hosts.remove(host, hostLimit);
+        }
+    }
+
+    /**
+     * 占用一个名额，最多等待 maxSyncWaitMillis（同步请求使用）
+     *
+     * @throws InterruptedIOException 等待超时或线程被中断
+     */
+    void acquire(String host) throws InterruptedIOException {
+        while (true) {
+            HostLimit hostLimit = hostLimit(host);
+            if (hostLimit.acquire(maxSyncWaitMillis)) {
+                return;
+            }
+            hosts.remove(host, hostLimit);
+        }
+    }
+
+    /**
+     * 用一次网络尝试的结果调整上限，调用时请求还占用着名额
+     *
+     * @param rttNanos 这次尝试的耗时
+     * @param dropped 这次尝试是否失败或被后端拒绝
+     */
+    void sample(String host, long rttNanos, boolean dropped) {
+        // 占用着名额的主机不会被移除
+        HostLimit hostLimit = hosts.get(host);
+        if (hostLimit != null) {
+            hostLimit.sample(rttNanos, dropped);
+        }
+    }
+
+    /**
+     * 归还名额
+     */
+    void release(String host) {
+        HostLimit hostLimit = hosts.get(host);
+        if (hostLimit != null) {
+            hostLimit.release();
+        }
+    }
+
+    private HostLimit hostLimit(String host) {
+        pruneIdleHosts(System.nanoTime());
+        return hosts.computeIfAbsent(host, HostLimit::new);
+    }
+
+    /**
+     * 移除空闲的主机，最多每 IDLE_HOST_NANOS 扫描一次
+     * 先在主机的锁内标记退役再移除，获取名额的线程看到退役后重新获取
+     */
+    private void pruneIdleHosts(long now) {
+        long pruneAt = nextPruneAt.get();
+        if (now - pruneAt < 0 || !nextPruneAt.compareAndSet(pruneAt, now + IDLE_HOST_NANOS)) {
+            return;
+        }
+        for (HostLimit hostLimit : hosts.values()) {
+            hostLimit.lock.lock();
+            try {
+                if (hostLimit.inFlight > 0 || now - hostLimit.idleSinceNanos < IDLE_HOST_NANOS) {
+                    continue;
+                }
+                hostLimit.retired = true;
+            } finally {
+                hostLimit.lock.unlock();
+            }
+            hosts.remove(hostLimit.host, hostLimit);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimiter{algorithm=" + algorithm + ", limits=" + limits() + "}";
+    }
+
+    /**
+     * 上限的一次变化
+     */
+    public static final class LimitChange {
+        private final long timeMillis;
+        private final int limit;
+
+        LimitChange(long timeMillis, int limit) {
+            this.timeMillis = timeMillis;
+            this.limit = limit;
+        }
+
+        public long timeMillis() {
+            return timeMillis;
+        }
+
+        public int limit() {
+            return limit;
+        }
+
+        @Override
+        public String toString() {
+            return timeMillis + ":" + limit;
+        }
+    }
+
+    /**
+     * 一个主机的上限和正在执行的请求数，所有状态由 lock 保护
+     * 同步请求在 available 上等待名额，等待中的虚拟线程可以让出载体线程
+     */
+    private final class HostLimit {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition available = lock.newCondition();
+        final String host;
+        double limit = initialLimit;
+        int inFlight;
+        // 长期平均 RTT（指数移动平均），0 表示还没有样本
+        double longRttNanos;
+        final ArrayDeque<LimitChange> history = new ArrayDeque<>();
+        // 最近一次没有请求的时间
+        long idleSinceNanos = System.nanoTime();
+        // 已经（或即将）从 hosts 中移除，不能再占用名额
+        boolean retired;
+
+        HostLimit(String host) {
+            this.host = host;
+            history.add(new LimitChange(System.currentTimeMillis(), initialLimit));
+        }
+
+        int currentLimit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int inFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<LimitChange> history() {
+            lock.lock();
+            try {
+                return new ArrayList<>(history);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 调用方持有 lock
+         */
+        boolean tryAcquire() {
+            if (inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * @return 已经退役时返回 false，调用方需要重新获取 HostLimit
+         */
+        boolean acquire(long maxWaitMillis) throws InterruptedIOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            lock.lock();
+            try {
+                while (!retired && inFlight >= (int) limit) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new InterruptedIOException("concurrency limit exceeded for " + host);
+                    }
+                    available.awaitNanos(remaining);
+                }
+                if (retired) {
+                    return false;
+                }
+                inFlight++;
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void sample(long rttNanos, boolean dropped) {
+            lock.lock();
+            try {
+                int before = (int) limit;
+                update(rttNanos, dropped);
+                int after = (int) limit;
+                if (after != before) {
+                    history.addLast(new LimitChange(System.currentTimeMillis(), after));
+                    if (history.size() > historySize) {
+                        history.removeFirst();
+                    }
+                }
+                if (after > before) {
+                    // 上限变大，唤醒等待的同步请求
+                    available.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                if (inFlight == 0) {
+                    idleSinceNanos = System.nanoTime();
+                }
+                // 名额归还，唤醒等待的同步请求
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void update(long rttNanos, boolean dropped) {
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                return;
+            }
+            // 并发远低于上限时，RTT 说明不了上限是否合适
+            boolean appLimited = inFlight * 2 < limit;
+
+            if (algorithm == Algorithm.AIMD) {
+                if (!appLimited) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+                return;
+            }
+
+            if (longRttNanos == 0) {
+                longRttNanos = rttNanos;
+            } else {
+                longRttNanos += (rttNanos - longRttNanos) * 2.0 / (LONG_WINDOW + 1);
+            }
+            // 长期平均远大于本次 RTT（例如后端恢复），让它更快地跟上
+            if (longRttNanos > rttNanos * 2) {
+                longRttNanos *= 0.95;
+            }
+            if (appLimited) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRttNanos / rttNanos));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        }
+    }
+
+    public static class Builder {
+        private Algorithm algorithm = Algorithm.AIMD;
+        private int initialLimit = 10;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;
+        private long maxSyncWaitMillis = 10_000;
+        private int historySize = 100;
+
+        public Builder algorithm(Algorithm algorithm) {
+            if (algorithm == null) {
+                throw new IllegalArgumentException("algorithm == null");
+            }
+            this.algorithm = algorithm;
+            return this;
+        }
+
+        /**
+         * 新主机的初始上限，默认 10
+         */
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * 出错时上限乘以的系数，默认 0.9
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("backoffRatio must be in (0, 1): " + backoffRatio);
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * 同步请求等待名额的最长时间，超时抛出 InterruptedIOException，默认 10 秒
+         */
+        public Builder maxSyncWaitMillis(long maxSyncWaitMillis) {
+            if (maxSyncWaitMillis < 0) {
+                throw new IllegalArgumentException("maxSyncWaitMillis < 0");
+            }
+            this.maxSyncWaitMillis = maxSyncWaitMillis;
+            return this;
+        }
+
+        /**
+         * 每个主机保留的上限变化记录条数，默认 100
+         */
+        public Builder historySize(int historySize) {
+            if (historySize < 1) {
+                throw new IllegalArgumentException("historySize < 1");
+            }
+            this.historySize = historySize;
+            return this;
+        }
+
+        public AdaptiveLimiter build() {
+            if (minLimit < 1 || minLimit > maxLimit) {
+                throw new IllegalStateException("minLimit < 1 || minLimit > maxLimit");
+            }
+            if (initialLimit < minLimit || initialLimit > maxLimit) {
+                throw new IllegalStateException("initialLimit out of [minLimit, maxLimit]");
+            }
+            return new AdaptiveLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.myokhttp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 批量执行：通过 OkHttpClient.executeAll() 创建
+ *
+ * 从请求迭代器中按需取出请求，最多同时有 concurrency 个请求在执行或等待被读取，
+ * 调用方每读取一个结果才会取出下一个请求。
+ * 几十万个请求也不会一次性全部进入 Dispatcher 的等待队列，内存占用与 concurrency 成正比。
+ *
+ * 用法：
+ * <pre>
+ * try (BulkCall bulk = client.executeAll(requests, 32)) {
+ *     while (bulk.hasNext()) {
+ *         BulkCall.Result result = bulk.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public final class BulkCall implements Iterator<BulkCall.Result>, Closeable {
+
+    /**
+     * 结果的返回顺序
+     */
+    public enum Order {
+        // 先完成先返回
+        COMPLETION,
+        // 按请求的输入顺序返回；最早的请求没有完成时，后面已完成的结果会等待它
+        INPUT
+    }
+
+    /**
+     * 请求失败（IOException）时的处理方式
+     * 非 2xx 的响应不算失败，由调用方根据 Result.response() 判断
+     */
+    public enum ErrorMode {
+        // 收集错误：失败的请求作为结果返回，其他请求继续执行
+        COLLECT,
+        // 快速失败：第一个失败的结果立即返回（不论顺序），然后取消其他请求并结束迭代
+        FAIL_FAST
+    }
+
+    private final OkHttpClient client;
+    private final Iterator<Request> requests;
+    private final int concurrency;
+    private final Order order;
+    private final ErrorMode errorMode;
+
+    // 以下状态由 this 的锁保护
+    // 下一个请求的序号
+    private long nextIndex;
+    // 按输入顺序返回时，下一个要返回的序号
+    private long nextToReturn;
+    // 已经开始但结果还没有被读取的请求数
+    private int outstanding;
+    // 请求迭代器已经取完
+    private boolean exhausted;
+    // 有线程正在锁外读取请求迭代器
+    private boolean launching;
+    private boolean closed;
+    // 快速失败时第一个失败的结果，以及它是否已经返回
+    private Result failure;
+    private boolean failureReturned;
+
+    private final Set<Call> inFlight = new HashSet<>();
+    private final ArrayDeque<Result> completed = new ArrayDeque<>();
+    private final Map<Long, Result> completedByIndex = new HashMap<>();
+
+    BulkCall(OkHttpClient client, Iterator<Request> requests, int concurrency,
+             Order order, ErrorMode errorMode) {
+        if (requests == null) {
+            throw new IllegalArgumentException("requests == null");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency < 1: " + concurrency);
+        }
+        if (order == null || errorMode == null) {
+            throw new IllegalArgumentException("order == null || errorMode == null");
+        }
+        this.client = client;
+        this.requests = requests;
+        this.concurrency = concurrency;
+        this.order = order;
+        this.errorMode = errorMode;
+    }
+
+    /**
+     * 是否还有结果，没有开始执行的请求会在这里开始
+     */
+    @Override
+    public boolean hasNext() {
+        launch();
+        synchronized (this) {
+            if (closed || failureReturned) {
+                return false;
+            }
+            return failure != null || outstanding > 0;
+        }
+    }
+
+    /**
+     * 阻塞直到有结果可以返回
+     *
+     * Iterator.next() 不能抛出受检异常：等待时线程被中断会关闭 BulkCall、取消所有请求，
+     * 保留中断状态并抛出 IllegalStateException。需要把中断当作 IOException 处理时使用 nextResult()
+     *
+     * @throws NoSuchElementException 没有更多结果
+     * @throws IllegalStateException 等待时线程被中断
+     */
+    @Override
+    public Result next() {
+        try {
+            return nextResult();
+        } catch (InterruptedIOException e) {
+            throw new IllegalStateException("interrupted", e);
+        }
+    }
+
+    /**
+     * 同 next()，等待时线程被中断会关闭 BulkCall 并抛出 InterruptedIOException
+     *
+     * @throws NoSuchElementException 没有更多结果
+     * @throws InterruptedIOException 等待时线程被中断
+     */
+    public Result nextResult() throws InterruptedIOException {
+        while (true) {
+            launch();
+            Result result;
+            boolean interrupted = false;
+            synchronized (this) {
+                if (closed || failureReturned || (failure == null && outstanding == 0)) {
+                    throw new NoSuchElementException();
+                }
+                if (failure != null) {
+                    failureReturned = true;
+                    return failure;
+                }
+                result = takeCompleted();
+                if (result != null) {
+                    outstanding--;
+                } else {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                close();
+                throw new InterruptedIOException("interrupted");
+            }
+            if (result != null) {
+                launch();
+                return result;
+            }
+        }
+    }
+
+    /**
+     * 取消所有执行中的请求，丢弃还没有读取的结果，不再取出新的请求
+     */
+    @Override
+    public void close() {
+        List<Call> calls;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            calls = new ArrayList<>(inFlight);
+            inFlight.clear();
+            for (Result result : completed) {
+                result.closeQuietly();
+            }
+            for (Result result : completedByIndex.values()) {
+                result.closeQuietly();
+            }
+            completed.clear();
+            completedByIndex.clear();
+            notifyAll();
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * 补足到 concurrency 个请求
+     *
+     * 在锁内预留名额，在锁外读取请求迭代器和 enqueue：迭代器是调用方的代码，
+     * 排队时被取消的请求也会在 enqueue 的线程上直接回调，都不能在持有锁时执行。
+     * 同一时间只有一个线程在取请求（launching），其他线程直接返回
+     */
+    private void launch() {
+        while (true) {
+            int slots;
+            long firstIndex;
+            synchronized (this) {
+                if (launching || closed || failure != null || exhausted || outstanding >= concurrency) {
+                    return;
+                }
+                launching = true;
+                slots = concurrency - outstanding;
+                outstanding += slots;
+                firstIndex = nextIndex;
+            }
+
+            List<Call> calls = new ArrayList<>(slots);
+            boolean drained = false;
+            RuntimeException iteratorFailure = null;
+            try {
+                while (calls.size() < slots) {
+                    if (!requests.hasNext()) {
+                        drained = true;
+                        break;
+                    }
+                    calls.add(client.newCall(requests.next()));
+                }
+            } catch (RuntimeException e) {
+                iteratorFailure = e;
+            }
+
+            synchronized (this) {
+                launching = false;
+                // 归还没有用上的名额
+                outstanding -= slots - calls.size();
+                if (drained) {
+                    exhausted = true;
+                }
+                nextIndex += calls.size();
+                if (closed || failure != null) {
+                    // 取请求期间已经关闭或快速失败，这些请求不再开始
+                    outstanding -= calls.size();
+                    calls.clear();
+                } else {
+                    inFlight.addAll(calls);
+                }
+                notifyAll();
+            }
+
+            for (int i = 0; i < calls.size(); i++) {
+                calls.get(i).enqueue(new ResultCallback(firstIndex + i));
+            }
+            if (iteratorFailure != null) {
+                throw iteratorFailure;
+            }
+        }
+    }
+
+    private Result takeCompleted() {
+        if (order == Order.COMPLETION) {
+            return completed.pollFirst();
+        }
+        Result result = completedByIndex.remove(nextToReturn);
+        if (result != null) {
+            nextToReturn++;
+        }
+        return result;
+    }
+
+    private void onResult(Call call, Result result) {
+        List<Call> toCancel = null;
+        synchronized (this) {
+            if (!inFlight.remove(call) || closed || failure != null) {
+                // 已经关闭或已经快速失败，结果没有人会读取
+                result.closeQuietly();
+                return;
+            }
+            if (result.exception != null && errorMode == ErrorMode.FAIL_FAST) {
+                failure = result;
+                toCancel = new ArrayList<>(inFlight);
+                inFlight.clear();
+                for (Result pending : completed) {
+                    pending.closeQuietly();
+                }
+                for (Result pending : completedByIndex.values()) {
+                    pending.closeQuietly();
+                }
+                completed.clear();
+                completedByIndex.clear();
+            } else if (order == Order.COMPLETION) {
+                completed.addLast(result);
+            } else {
+                completedByIndex.put(result.index, result);
+            }
+            notifyAll();
+        }
+        if (toCancel != null) {
+            for (Call pending : toCancel) {
+                pending.cancel();
+            }
+        }
+    }
+
+    private final class ResultCallback implements Call.Callback {
+        private final long index;
+
+        ResultCallback(long index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            onResult(call, new Result(index, call.request(), null, e));
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            onResult(call, new Result(index, call.request(), response, null));
+        }
+    }
+
+    /**
+     * 一个请求的结果：成功时有 response，失败时有 exception
+     */
+    public static final class Result {
+        private final long index;
+        private final Request request;
+        private final Response response;
+        private final IOException exception;
+
+        Result(long index, Request request, Response response, IOException exception) {
+            this.index = index;
+            this.request = request;
+            this.response = response;
+            this.exception = exception;
+        }
+
+        /**
+         * 请求在输入中的序号，从 0 开始
+         */
+        public long index() {
+            return index;
+        }
+
+        public Request request() {
+            return request;
+        }
+
+        public Response response() {
+            return response;
+        }
+
+        public IOException exception() {
+            return exception;
+        }
+
+        /**
+         * 是否拿到了响应（不检查状态码）
+         */
+        public boolean isSuccessful() {
+            return exception == null;
+        }
+
+        /**
+         * 返回响应，请求失败时抛出它的异常
+         */
+        public Response responseOrThrow() throws IOException {
+            if (exception != null) {
+                throw exception;
+            }
+            return response;
+        }
+
+        void closeQuietly() {
+            if (response != null && response.body() != null) {
+                try {
+                    response.body().close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Result{index=" + index + ", url=" + request.url()
+                + (exception != null ? ", exception=" + exception : ", code=" + response.code()) + "}";
+        }
+    }
+}
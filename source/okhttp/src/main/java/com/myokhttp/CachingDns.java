@@ -0,0 +1,386 @@
+package com.myokhttp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带缓存的域名解析，OkHttpClient 默认使用
+ *
+ * JVM 自带的缓存是全局的，不能按客户端调整，过期后第一个请求要同步等待解析。
+ * 这里每个客户端一个缓存：
+ * - 解析成功的结果保存 ttl，解析失败（UnknownHostException）保存 negativeTtl
+ * - 成功的结果用了 refreshAfter 比例的 ttl 之后，下一次命中会在后台重新解析，
+ *   当前请求仍然使用缓存，不用等待；后台解析失败时保留原来的结果直到过期
+ * - 最多缓存 maxEntries 个主机名，超出时淘汰最久没有使用的
+ * - 同一个主机名同时只有一个线程在解析，其他线程等待它的结果
+ *
+ * 系统解析器不返回记录的 TTL，所以每条记录使用相同的 ttl，从解析完成时开始计算。
+ */
+public final class CachingDns implements Dns {
+
+    private static ExecutorService refreshExecutor;
+
+    private final Dns delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final long refreshAfterNanos;
+    private final int maxEntries;
+
+    // 按访问顺序排列，最久没有使用的在最前面（由 this 的锁保护）
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong negativeHitCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong resolveCount = new AtomicLong();
+    private final AtomicLong resolveNanos = new AtomicLong();
+    private final AtomicLong maxResolveNanos = new AtomicLong();
+
+    private CachingDns(Builder builder) {
+        this.delegate = builder.delegate;
+        this.ttlNanos = builder.ttlNanos;
+        this.negativeTtlNanos = builder.negativeTtlNanos;
+        this.refreshAfterNanos = (long) (builder.ttlNanos * builder.refreshAfter);
+        this.maxEntries = builder.maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > CachingDns.this.maxEntries) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        if (hostname == null) {
+            throw new UnknownHostException("hostname == null");
+        }
+        String key = hostname.toLowerCase(Locale.ROOT);
+        Entry entry;
+        boolean refresh = false;
+        boolean resolveHere = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            long now = System.nanoTime();
+            if (entry != null && entry.resolved && now - entry.expiresAt < 0) {
+                if (entry.addresses == null) {
+                    negativeHitCount.incrementAndGet();
+                } else {
+                    hitCount.incrementAndGet();
+                    if (!entry.refreshing && now - entry.refreshAt >= 0) {
+                        entry.refreshing = true;
+                        refresh = true;
+                    }
+                }
+            } else if (entry == null || entry.resolved) {
+                // 没有缓存或已经过期，由当前线程解析
+                missCount.incrementAndGet();
+                entry = new Entry();
+                entries.put(key, entry);
+                resolveHere = true;
+            } else {
+                // 其他线程正在解析
+                missCount.incrementAndGet();
+            }
+        }
+
+        if (refresh) {
+            refreshInBackground(key, entry);
+        }
+        if (resolveHere) {
+            resolve(key, entry);
+        }
+        return entry.await(hostname);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void evictAll() {
+        entries.clear();
+    }
+
+    /**
+     * 缓存的主机名数（包括解析失败的）
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 命中率：命中（包括解析失败的缓存）占所有查询的比例
+     */
+    public double hitRate() {
+        long hits = hitCount.get() + negativeHitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 命中解析失败缓存的次数
+     */
+    public long negativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    /**
+     * 后台重新解析的次数
+     */
+    public long refreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * 因为超过 maxEntries 被淘汰的次数
+     */
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 实际解析（包括后台重新解析）的次数
+     */
+    public long resolveCount() {
+        return resolveCount.get();
+    }
+
+    /**
+     * 实际解析的平均耗时（毫秒）
+     */
+    public double averageResolveMillis() {
+        long count = resolveCount.get();
+        return count == 0 ? 0 : resolveNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * 实际解析的最大耗时（毫秒）
+     */
+    public double maxResolveMillis() {
+        return maxResolveNanos.get() / 1e6;
+    }
+
+    /**
+     * 同步解析，结果写入 entry 并唤醒等待的线程
+     */
+    private void resolve(String key, Entry entry) {
+        List<InetAddress> addresses = null;
+        UnknownHostException failure = null;
+        try {
+            addresses = resolve(key);
+        } catch (UnknownHostException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = unknownHost(key, e);
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            entry.complete(addresses, failure, now);
+            if (failure != null && negativeTtlNanos == 0 && entries.get(key) == entry) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 后台重新解析，成功后替换缓存；失败时保留原来的结果
+     */
+    private void refreshInBackground(String key, Entry stale) {
+        Runnable task = () -> {
+            try {
+                List<InetAddress> addresses = resolve(key);
+                long now = System.nanoTime();
+                Entry fresh = new Entry();
+                synchronized (this) {
+                    fresh.complete(addresses, null, now);
+                    if (entries.get(key) == stale) {
+                        entries.put(key, fresh);
+                    }
+                }
+                refreshCount.incrementAndGet();
+            } catch (UnknownHostException | RuntimeException e) {
+                synchronized (this) {
+                    // 在剩余的 ttl 内不再重试
+                    stale.refreshAt = stale.expiresAt;
+                    stale.refreshing = false;
+                }
+            }
+        };
+        try {
+            refreshExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                stale.refreshing = false;
+            }
+        }
+    }
+
+    private List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        long start = System.nanoTime();
+        try {
+            List<InetAddress> addresses = delegate.lookup(hostname);
+            if (addresses == null || addresses.isEmpty()) {
+                throw new UnknownHostException(delegate + " returned no addresses for " + hostname);
+            }
+            return Collections.unmodifiableList(addresses);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            resolveCount.incrementAndGet();
+            resolveNanos.addAndGet(elapsed);
+            maxResolveNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    private static UnknownHostException unknownHost(String hostname, Throwable cause) {
+        UnknownHostException e = new UnknownHostException(hostname);
+        e.initCause(cause);
+        return e;
+    }
+
+    private static synchronized ExecutorService refreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "OkHttp Dns Refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return refreshExecutor;
+    }
+
+    /**
+     * 一个主机名的缓存，字段由 CachingDns 的锁保护
+     */
+    private final class Entry {
+        // 解析完成前其他线程在 await() 中等待 done，等待时不持有 CachingDns 的锁
+        private final CountDownLatch done = new CountDownLatch(1);
+        boolean resolved;
+        List<InetAddress> addresses;
+        UnknownHostException failure;
+        long expiresAt;
+        long refreshAt;
+        boolean refreshing;
+
+        void complete(List<InetAddress> addresses, UnknownHostException failure, long now) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.resolved = true;
+            this.expiresAt = now + (addresses != null ? ttlNanos : negativeTtlNanos);
+            this.refreshAt = now + refreshAfterNanos;
+            done.countDown();
+        }
+
+        List<InetAddress> await(String hostname) throws UnknownHostException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (CachingDns.this) {
+                if (addresses != null) {
+                    return addresses;
+                }
+                // 每次抛出新的异常，调用栈属于当前线程
+                throw unknownHost(hostname, failure);
+            }
+        }
+    }
+
+    public static class Builder {
+        private Dns delegate = Dns.SYSTEM;
+        private long ttlNanos = TimeUnit.SECONDS.toNanos(60);
+        private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(5);
+        private double refreshAfter = 0.8;
+        private int maxEntries = 1000;
+
+        /**
+         * 实际执行解析的 Dns，默认 Dns.SYSTEM
+         */
+        public Builder delegate(Dns delegate) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("delegate == null");
+            }
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * 解析成功的结果保存多久，默认 60 秒
+         */
+        public Builder ttl(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("duration <= 0");
+            }
+            this.ttlNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 解析失败的结果保存多久，默认 5 秒；0 表示不缓存失败
+         */
+        public Builder negativeTtl(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration < 0");
+            }
+            this.negativeTtlNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 用了多少比例的 ttl 之后在后台重新解析，默认 0.8；1 表示不提前解析
+         */
+        public Builder refreshAfter(double refreshAfter) {
+            if (refreshAfter <= 0 || refreshAfter > 1) {
+                throw new IllegalArgumentException("refreshAfter must be in (0, 1]: " + refreshAfter);
+            }
+            this.refreshAfter = refreshAfter;
+            return this;
+        }
+
+        /**
+         * 最多缓存的主机名数，默认 1000
+         */
+        public Builder maxEntries(int maxEntries) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("maxEntries < 1");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public CachingDns build() {
+            return new CachingDns(this);
+        }
+    }
+}
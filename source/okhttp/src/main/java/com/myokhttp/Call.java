@@ -1,6 +1,9 @@
 package com.myokhttp;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Call 接口：表示一个准备好执行的请求
@@ -24,6 +27,58 @@ public interface Call {
      * 在后台线程执行，通过回调返回结果
      */
     void enqueue(Callback callback);
+
+    /**
+     * 异步执行请求，返回 CompletableFuture
+     * future 在 Dispatcher 的线程上完成；取消 future 会取消请求，
+     * 还在排队的请求立即从 Dispatcher 中移除
+     */
+    default CompletableFuture<Response> executeAsync() {
+        return executeAsync(null);
+    }
+
+    /**
+     * 异步执行请求，future 在指定的 executor 上完成，
+     * 之后的 thenApply() 等回调不会占用 Dispatcher 的线程
+     *
+     * 默认实现基于 enqueue()：future 被取消时调用 cancel()，之后到达的响应直接关闭
+     */
+    default CompletableFuture<Response> executeAsync(Executor executor) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        future.whenComplete((response, e) -> {
+            if (e instanceof CancellationException) {
+                cancel();
+            }
+        });
+        enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                complete(() -> future.completeExceptionally(e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                complete(() -> {
+                    if (!future.complete(response) && response.body() != null) {
+                        // future 已经被取消，没有人会读取响应体
+                        try {
+                            response.body().close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                });
+            }
+
+            private void complete(Runnable completion) {
+                if (executor == null) {
+                    completion.run();
+                } else {
+                    executor.execute(completion);
+                }
+            }
+        });
+        return future;
+    }
     
     /**
      * 取消请求
@@ -1,7 +1,12 @@
 package com.myokhttp;
 
 import java.io.*;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * 服务器调用拦截器
@@ -28,6 +33,9 @@ import java.util.Map;
  */
 public class CallServerInterceptor implements Interceptor {
 
+    // 读入内存的响应体上限，更大的响应体由调用方从连接上流式读取
+    static final int MAX_BUFFERED_BODY = 64 * 1024;
+
     @Override
     public Response intercept(Chain chain) throws IOException {
         Request request = chain.request();
@@ -35,8 +43,12 @@ public class CallServerInterceptor implements Interceptor {
         // 获取连接（由 ConnectInterceptor 建立）
         RealConnection connection = getConnection(chain);
         
-        // 写入请求
-        writeRequest(connection, request);
+        // 写入请求，超过写超时时关闭连接；
+        // 请求体等待数据时，请求被取消、到了整体超时的截止时间或连接被关闭（例如写超时）就放弃
+        RealCall call = chain.call() instanceof RealCall ? (RealCall) chain.call() : null;
+        BooleanSupplier stopped = () -> connection.isClosed()
+            || (call != null && (call.isExchangeStopped() || call.isTimedOut()));
+        writeRequestWithTimeout(connection, request, chain.writeTimeoutMillis(), stopped);
         
         // 读取响应
         Response response = readResponse(connection, request);
@@ -49,9 +61,12 @@ public class CallServerInterceptor implements Interceptor {
      * 这里需要一些技巧，因为我们的简化实现
      */
     private RealConnection getConnection(Chain chain) throws IOException {
-        // 检查是否是 ConnectedChain
-        if (chain instanceof ConnectInterceptor.ConnectedChain) {
-            return ((ConnectInterceptor.ConnectedChain) chain).connection();
+        // 检查链上是否携带了 ConnectInterceptor 建立的连接
+        if (chain instanceof RealInterceptorChain) {
+            RealConnection connection = ((RealInterceptorChain) chain).connection();
+            if (connection != null) {
+                return connection;
+            }
         }
         
         // 否则，需要重新建立连接（这是一个降级方案）
@@ -68,10 +83,43 @@ public class CallServerInterceptor implements Interceptor {
         return connection;
     }
 
+    /**
+     * 写入请求并执行写超时
+     * Socket 的写操作没有超时设置，对方不读取时会一直阻塞，由看门狗到期后关闭连接
+     */
+    private void writeRequestWithTimeout(RealConnection connection, Request request, int writeTimeout,
+                                         BooleanSupplier stopped) throws IOException {
+        if (writeTimeout == 0) {
+            writeRequest(connection, request, stopped);
+            return;
+        }
+        Watchdog.Timeout timeout = Watchdog.shared().schedule(writeTimeout, TimeUnit.MILLISECONDS, () -> {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        });
+        try {
+            writeRequest(connection, request, stopped);
+        } catch (IOException e) {
+            if (!timeout.cancel()) {
+                SocketTimeoutException timeoutException = new SocketTimeoutException("write timeout");
+                timeoutException.initCause(e);
+                throw timeoutException;
+            }
+            throw e;
+        }
+        if (!timeout.cancel()) {
+            // 写完的同时到期，连接已经被关闭
+            throw new SocketTimeoutException("write timeout");
+        }
+    }
+
     /**
      * 写入 HTTP 请求
      */
-    private void writeRequest(RealConnection connection, Request request) throws IOException {
+    private void writeRequest(RealConnection connection, Request request, BooleanSupplier stopped)
+            throws IOException {
         OutputStream out = connection.getOutputStream();
         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
 
@@ -80,8 +128,13 @@ public class CallServerInterceptor implements Interceptor {
         writer.write(request.method() + " " + path + " HTTP/1.1\r\n");
 
         // 写入请求头
+        boolean chunked = false;
         for (Map.Entry<String, String> entry : request.headers().entrySet()) {
             writer.write(entry.getKey() + ": " + entry.getValue() + "\r\n");
+            if (entry.getKey().equalsIgnoreCase("Transfer-Encoding")
+                    && entry.getValue().equalsIgnoreCase("chunked")) {
+                chunked = true;
+            }
         }
 
         // 空行，表示请求头结束
@@ -89,22 +142,122 @@ public class CallServerInterceptor implements Interceptor {
         writer.flush();
 
         // 写入请求体（如果有）
+        // 长度未知时 BridgeInterceptor 设置了 Transfer-Encoding: chunked，请求体必须按块编码
         if (request.body() != null) {
-            request.body().writeTo(out);
+            if (chunked) {
+                ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+                request.body().writeTo(chunkedOut, stopped);
+                chunkedOut.finish();
+            } else {
+                request.body().writeTo(out, stopped);
+            }
         }
 
         System.out.println("已发送请求: " + request.method() + " " + request.url());
     }
 
+    /**
+     * chunked 编码的请求体输出流
+     * 数据先缓冲，缓冲区满或 flush() 时写出一个块；finish() 写出结束块（0\r\n\r\n）。
+     * 关闭时只结束编码，不关闭连接的输出流
+     */
+    static final class ChunkedOutputStream extends OutputStream {
+        private static final byte[] CRLF = {'\r', '\n'};
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int count;
+        private boolean finished;
+
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkNotFinished();
+            if (count == buffer.length) {
+                writeBuffer();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkNotFinished();
+            if (len >= buffer.length) {
+                // 大块数据直接作为一个块写出，不经过缓冲区
+                writeBuffer();
+                writeChunk(b, off, len);
+                return;
+            }
+            if (len > buffer.length - count) {
+                writeBuffer();
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (finished) {
+                return;
+            }
+            writeBuffer();
+            out.flush();
+        }
+
+        /**
+         * 写出剩余数据和结束块，可以重复调用
+         */
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            writeBuffer();
+            out.write(new byte[]{'0', '\r', '\n', '\r', '\n'});
+            out.flush();
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        private void writeBuffer() throws IOException {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+
+        private void writeChunk(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                // 长度为 0 的块表示结束，不能用来写空数据
+                return;
+            }
+            out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        private void checkNotFinished() {
+            if (finished) {
+                throw new IllegalStateException("请求体已经写完");
+            }
+        }
+    }
+
     /**
      * 读取 HTTP 响应
      */
     private Response readResponse(RealConnection connection, Request request) throws IOException {
         InputStream in = connection.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        // 响应头是 ASCII，逐字节按行读取，避免 Reader 预读走响应体
+        StringBuilder lineBuffer = new StringBuilder(128);
 
         // 读取状态行：HTTP/1.1 200 OK
-        String statusLine = reader.readLine();
+        String statusLine = readLine(in, lineBuffer);
         if (statusLine == null) {
             throw new IOException("空响应");
         }
@@ -126,7 +279,9 @@ public class CallServerInterceptor implements Interceptor {
 
         String line;
         long contentLength = -1;
-        while ((line = reader.readLine()) != null) {
+        String contentType = null;
+        boolean chunked = false;
+        while ((line = readLine(in, lineBuffer)) != null) {
             if (line.isEmpty()) {
                 // 空行，表示响应头结束
                 break;
@@ -146,34 +301,63 @@ public class CallServerInterceptor implements Interceptor {
                     } catch (NumberFormatException e) {
                         // 忽略
                     }
+                } else if (name.equalsIgnoreCase("Content-Type")) {
+                    contentType = value;
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")
+                        && value.regionMatches(true, value.length() - 7, "chunked", 0, 7)) {
+                    chunked = true;
                 }
             }
         }
 
-        // 读取响应体
+        if (contentType == null) {
+            contentType = "text/plain";
+        }
+
+        // chunked 编码时忽略 Content-Length，由块大小决定响应体在哪里结束
+        if (chunked) {
+            in = new ChunkedInputStream(in);
+            contentLength = -1;
+        }
+
+        // 事件流（SSE）可能永远不会结束，不能先读完再返回，直接交给调用方流式读取
+        if (isEventStream(contentType)) {
+            System.out.println("已收到响应: " + code + " " + message + ", 流式响应体");
+            return responseBuilder.body(streamingBody(connection, in, null, contentType, contentLength, chunked))
+                .build();
+        }
+
+        // 较小的响应体读入内存（可以共享，连接立即可以复用），
+        // 超过 MAX_BUFFERED_BODY 的部分由调用方从连接上流式读取，内存占用不随响应体增长
         byte[] bodyBytes;
-        if (contentLength > 0) {
-            // 已知长度，按长度读取
-            bodyBytes = readExactly(in, (int) contentLength);
-        } else if (contentLength == 0) {
+        if (contentLength == 0) {
             // 没有响应体
             bodyBytes = new byte[0];
+        } else if (contentLength > 0 && !chunked) {
+            if (contentLength > MAX_BUFFERED_BODY) {
+                System.out.println("已收到响应: " + code + " " + message + ", 流式响应体: " + contentLength + " 字节");
+                return responseBuilder.body(streamingBody(connection, in, null, contentType, contentLength, false))
+                    .build();
+            }
+            bodyBytes = readExactly(in, (int) contentLength);
         } else {
-            // 长度未知，读取到流结束（注意：这会关闭连接）
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = in.read(buffer)) != -1) {
-                out.write(buffer, 0, len);
+            // chunked 或长度未知：先读最多 MAX_BUFFERED_BODY 字节，看响应体是否已经结束
+            ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+            if (!readToEnd(in, prefix, MAX_BUFFERED_BODY)) {
+                System.out.println("已收到响应: " + code + " " + message + ", 流式响应体");
+                return responseBuilder
+                    .body(streamingBody(connection, in, prefix.toByteArray(), contentType, -1, chunked))
+                    .build();
+            }
+            bodyBytes = prefix.toByteArray();
+            if (!chunked) {
+                // 长度未知，读到了流结束，连接不能再用
+                connection.noNewExchanges();
+                connection.close();
             }
-            bodyBytes = out.toByteArray();
         }
 
         // 创建 ResponseBody
-        String contentType = responseBuilder.build().header("Content-Type");
-        if (contentType == null) {
-            contentType = "text/plain";
-        }
         ResponseBody body = ResponseBody.create(bodyBytes, contentType);
         responseBuilder.body(body);
 
@@ -183,6 +367,301 @@ public class CallServerInterceptor implements Interceptor {
         return response;
     }
 
+    /**
+     * 从连接上流式读取的响应体，prefix 是已经读出的开头部分
+     * 长度未知又不是 chunked 时只能读到连接关闭，连接不能再复用
+     */
+    private static ResponseBody streamingBody(RealConnection connection, InputStream in, byte[] prefix,
+                                              String contentType, long contentLength, boolean chunked) {
+        if (contentLength < 0 && !chunked) {
+            connection.noNewExchanges();
+        }
+        connection.bodyOpened();
+        return ResponseBody.create(new StreamingInputStream(in, connection, prefix, contentLength),
+            contentType, contentLength);
+    }
+
+    /**
+     * 读到流结束或读满 limit 字节；返回是否读到了流结束
+     */
+    private static boolean readToEnd(InputStream in, ByteArrayOutputStream out, int limit) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (out.size() < limit) {
+            int len = in.read(buffer, 0, Math.min(buffer.length, limit - out.size()));
+            if (len == -1) {
+                return true;
+            }
+            out.write(buffer, 0, len);
+        }
+        // 刚好读满时再看一个字节：可能正好结束
+        int next = in.read();
+        if (next == -1) {
+            return true;
+        }
+        out.write(next);
+        return false;
+    }
+
+    /**
+     * 读取一行（以 \n 或 \r\n 结尾），流结束且没有数据时返回 null
+     */
+    private static String readLine(InputStream in, StringBuilder lineBuffer) throws IOException {
+        lineBuffer.setLength(0);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = lineBuffer.length();
+                if (length > 0 && lineBuffer.charAt(length - 1) == '\r') {
+                    lineBuffer.setLength(length - 1);
+                }
+                return lineBuffer.toString();
+            }
+            lineBuffer.append((char) b);
+        }
+        return lineBuffer.length() == 0 ? null : lineBuffer.toString();
+    }
+
+    private boolean isEventStream(String contentType) {
+        return contentType.regionMatches(true, 0, "text/event-stream", 0, "text/event-stream".length());
+    }
+
+    /**
+     * 直接读取连接的流式响应体
+     * 有 Content-Length 时最多读取声明的长度，否则读到流结束（chunked 时是读到结束块）。
+     * 读完后释放连接（可以复用时放回连接池）；没读完就关闭或读取出错时连接不能再用，直接关闭。
+     * prefix 是判断响应体大小时已经读出的开头部分，先于连接上的数据返回
+     */
+    static class StreamingInputStream extends FilterInputStream {
+        private final RealConnection connection;
+        private final byte[] prefix;
+        private int prefixOffset;
+        private long remaining;
+        private boolean finished;
+
+        StreamingInputStream(InputStream in, RealConnection connection, byte[] prefix, long contentLength) {
+            super(in);
+            this.connection = connection;
+            this.prefix = prefix != null ? prefix : new byte[0];
+            this.remaining = contentLength;
+            if (contentLength == 0) {
+                finish(true);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining > 0) {
+                len = (int) Math.min(len, remaining);
+            }
+            if (prefixOffset < prefix.length) {
+                int count = Math.min(len, prefix.length - prefixOffset);
+                System.arraycopy(prefix, prefixOffset, b, off, count);
+                prefixOffset += count;
+                consumed(count);
+                return count;
+            }
+            int count;
+            try {
+                count = super.read(b, off, len);
+            } catch (IOException e) {
+                finish(false);
+                throw e;
+            }
+            if (count == -1) {
+                if (remaining > 0) {
+                    finish(false);
+                    throw new EOFException("响应体在 Content-Length 之前结束");
+                }
+                finish(true);
+                return -1;
+            }
+            consumed(count);
+            return count;
+        }
+
+        private void consumed(int count) {
+            if (remaining > 0) {
+                remaining -= count;
+                if (remaining == 0) {
+                    finish(true);
+                }
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 2048)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (count == -1) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (finished) {
+                return 0;
+            }
+            if (prefixOffset < prefix.length) {
+                return prefix.length - prefixOffset;
+            }
+            return (int) Math.min(super.available(), remaining >= 0 ? remaining : Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish(false);
+        }
+
+        /**
+         * 响应体结束：可以复用的连接交还给 ConnectInterceptor 释放，否则关闭
+         */
+        private void finish(boolean complete) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (!complete) {
+                connection.noNewExchanges();
+            }
+            if (!connection.isReusable()) {
+                // 没读完，或者长度未知只能读到连接关闭
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+            }
+            connection.bodyClosed();
+        }
+    }
+
+    /**
+     * chunked 编码的响应体
+     * 格式：每块是 "十六进制长度[;扩展]\r\n" + 数据 + "\r\n"，长度为 0 的块后面是可选的尾部头和空行。
+     * 只把数据交给调用方，读到结束块时返回 -1（不关闭底层的流，连接还可以复用）
+     */
+    static final class ChunkedInputStream extends FilterInputStream {
+        // 当前块还没读的字节数；-1 表示还没读第一个块的长度
+        private long bytesRemainingInChunk = -1;
+        private boolean eof;
+        private final StringBuilder lineBuffer = new StringBuilder(32);
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (eof) {
+                return -1;
+            }
+            if (bytesRemainingInChunk <= 0) {
+                readChunkSize();
+                if (eof) {
+                    return -1;
+                }
+            }
+            int count = in.read(b, off, (int) Math.min(len, bytesRemainingInChunk));
+            if (count == -1) {
+                throw new EOFException("chunked 响应体意外结束");
+            }
+            bytesRemainingInChunk -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (eof || bytesRemainingInChunk <= 0) {
+                return 0;
+            }
+            return (int) Math.min(in.available(), bytesRemainingInChunk);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 2048)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (count == -1) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void readChunkSize() throws IOException {
+            if (bytesRemainingInChunk == 0) {
+                // 上一块数据后面的 \r\n
+                String separator = readLine(in, lineBuffer);
+                if (separator == null || !separator.isEmpty()) {
+                    throw new ProtocolException("chunked 块后缺少 CRLF");
+                }
+            }
+            String line = readLine(in, lineBuffer);
+            if (line == null) {
+                throw new EOFException("chunked 响应体意外结束");
+            }
+            int extension = line.indexOf(';');
+            String size = (extension != -1 ? line.substring(0, extension) : line).trim();
+            try {
+                bytesRemainingInChunk = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("无效的 chunk 大小: " + line);
+            }
+            if (bytesRemainingInChunk < 0) {
+                throw new ProtocolException("无效的 chunk 大小: " + line);
+            }
+            if (bytesRemainingInChunk == 0) {
+                // 结束块：跳过尾部头，直到空行
+                String trailer;
+                while ((trailer = readLine(in, lineBuffer)) != null && !trailer.isEmpty()) {
+                    // 忽略尾部头
+                }
+                eof = true;
+            }
+        }
+    }
+
     /**
      * 精确读取指定长度的字节
      */
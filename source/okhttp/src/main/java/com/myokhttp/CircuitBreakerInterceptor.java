@@ -0,0 +1,457 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 熔断器：后端故障时快速失败，不再让每个请求都等满连接超时
+ *
+ * 每个路由（主机 + 端口）一个熔断器，有三种状态：
+ * - CLOSED：正常放行，在滑动时间窗口内统计失败率
+ * - OPEN：窗口内请求数不少于 minimumCalls 且失败率达到阈值后打开，
+ *   所有请求直接抛出 CircuitOpenException，不建立连接
+ * - HALF_OPEN：打开 openDuration 之后，最多同时放行 halfOpenMaxCalls 个探测请求，
+ *   全部成功则关闭，任何一个失败则重新打开
+ *
+ * IOException（取消除外）和指定的状态码（默认 500、502、503、504）算作失败，
+ * 状态码失败时响应照常返回给调用方。
+ *
+ * 作为应用拦截器使用，统计的是重试之后的最终结果：
+ * <pre>
+ * CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor.Builder()
+ *     .failureRateThreshold(0.5)
+ *     .openDuration(30, TimeUnit.SECONDS)
+ *     .listener((route, from, to) -> log(route + ": " + from + " -> " + to))
+ *     .build();
+ * OkHttpClient client = new OkHttpClient.Builder().addInterceptor(breaker).build();
+ * </pre>
+ */
+public class CircuitBreakerInterceptor implements Interceptor {
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * 状态变化的监听器，在触发变化的请求线程上持有熔断器的锁回调，不要做耗时操作
+     */
+    public interface Listener {
+        void onStateChange(String route, State from, State to);
+    }
+
+    /**
+     * 熔断器打开时请求直接失败抛出的异常
+     */
+    public static class CircuitOpenException extends IOException {
+        private final String route;
+
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String route) {
+            super("熔断器已打开: " + route);
+            this.route = route;
+        }
+
+        public String route() {
+            return route;
+        }
+    }
+
+    // 滑动窗口分成的桶数
+    private static final int BUCKETS = 10;
+
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long windowNanos;
+    private final long openDurationNanos;
+    private final int halfOpenMaxCalls;
+    private final Set<Integer> failureStatusCodes;
+    private final CopyOnWriteArrayList<Listener> listeners;
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+
+    private CircuitBreakerInterceptor(Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.minimumCalls = builder.minimumCalls;
+        this.windowNanos = builder.windowNanos;
+        this.openDurationNanos = builder.openDurationNanos;
+        this.halfOpenMaxCalls = builder.halfOpenMaxCalls;
+        this.failureStatusCodes = Collections.unmodifiableSet(new HashSet<>(builder.failureStatusCodes));
+        this.listeners = new CopyOnWriteArrayList<>(builder.listeners);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String route = route(request.url());
+        Circuit circuit = circuits.computeIfAbsent(route, Circuit::new);
+
+        Permit permit = circuit.tryAcquire(System.nanoTime());
+        if (permit == Permit.REJECTED) {
+            rejectedCount.incrementAndGet();
+            throw new CircuitOpenException(route);
+        }
+
+        Outcome outcome = Outcome.IGNORED;
+        try {
+            Response response = chain.proceed(request);
+            outcome = failureStatusCodes.contains(response.code()) ? Outcome.FAILURE : Outcome.SUCCESS;
+            return response;
+        } catch (IOException e) {
+            outcome = isCanceled(e) ? Outcome.IGNORED : Outcome.FAILURE;
+            throw e;
+        } finally {
+            circuit.record(permit, outcome, System.nanoTime());
+        }
+    }
+
+    /**
+     * 路由当前的状态，没有请求过时为 CLOSED
+     */
+    public State state(String route) {
+        Circuit circuit = circuits.get(route);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    /**
+     * 所有路由当前的状态
+     */
+    public Map<String, State> states() {
+        Map<String, State> result = new LinkedHashMap<>();
+        for (Circuit circuit : circuits.values()) {
+            result.put(circuit.route, circuit.state);
+        }
+        return result;
+    }
+
+    /**
+     * 路由在当前窗口内的失败率，没有请求时为 0
+     */
+    public double failureRate(String route) {
+        Circuit circuit = circuits.get(route);
+        return circuit == null ? 0 : circuit.failureRate(System.nanoTime());
+    }
+
+    /**
+     * 熔断器打开期间被直接拒绝的请求数
+     */
+    public long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 熔断器打开的次数（包括从 HALF_OPEN 重新打开）
+     */
+    public long openedCount() {
+        return openedCount.get();
+    }
+
+    public void addListener(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 手动关闭路由的熔断器并清空统计
+     */
+    public void reset(String route) {
+        Circuit circuit = circuits.get(route);
+        if (circuit != null) {
+            circuit.reset();
+        }
+    }
+
+    /**
+     * 取消或整个请求超时不算后端的失败
+     */
+    private static boolean isCanceled(IOException e) {
+        return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+    }
+
+    /**
+     * 从 URL 中提取 "主机:端口"
+     */
+    static String route(String url) {
+        String rest = url;
+        int defaultPort = 80;
+        int schemeEnd = rest.indexOf("://");
+        if (schemeEnd != -1) {
+            if (rest.regionMatches(true, 0, "https", 0, schemeEnd)) {
+                defaultPort = 443;
+            }
+            rest = rest.substring(schemeEnd + 3);
+        }
+        int end = rest.length();
+        for (int i = 0; i < rest.length(); i++) {
+            char c = rest.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        String authority = rest.substring(0, end).toLowerCase(Locale.ROOT);
+        return authority.indexOf(':') == -1 ? authority + ":" + defaultPort : authority;
+    }
+
+    private enum Permit {
+        REJECTED,
+        NORMAL,
+        // HALF_OPEN 时放行的探测请求
+        PROBE
+    }
+
+    private enum Outcome {
+        SUCCESS,
+        FAILURE,
+        IGNORED
+    }
+
+    /**
+     * 一个路由的熔断器，状态由 this 的锁保护，state 可以不加锁读取
+     */
+    private final class Circuit {
+        final String route;
+        volatile State state = State.CLOSED;
+
+        // 滑动窗口：BUCKETS 个桶，每个桶统计 windowNanos / BUCKETS 时间内的请求
+        private final int[] totals = new int[BUCKETS];
+        private final int[] failures = new int[BUCKETS];
+        private final long[] bucketStarts = new long[BUCKETS];
+
+        private long openedAt;
+        private int probesInFlight;
+        private int probeSuccesses;
+
+        Circuit(String route) {
+            this.route = route;
+        }
+
+        synchronized Permit tryAcquire(long now) {
+            if (state == State.OPEN) {
+                if (now - openedAt < openDurationNanos) {
+                    return Permit.REJECTED;
+                }
+                transition(State.HALF_OPEN);
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesInFlight >= halfOpenMaxCalls) {
+                    return Permit.REJECTED;
+                }
+                probesInFlight++;
+                return Permit.PROBE;
+            }
+            return Permit.NORMAL;
+        }
+
+        synchronized void record(Permit permit, Outcome outcome, long now) {
+            if (permit == Permit.PROBE) {
+                if (state != State.HALF_OPEN) {
+                    // 其他探测请求已经决定了状态
+                    return;
+                }
+                probesInFlight = Math.max(0, probesInFlight - 1);
+                if (outcome == Outcome.FAILURE) {
+                    open(now);
+                } else if (outcome == Outcome.SUCCESS && ++probeSuccesses >= halfOpenMaxCalls) {
+                    close();
+                }
+                return;
+            }
+            if (state != State.CLOSED || outcome == Outcome.IGNORED) {
+                // 打开前已经放行的请求，结果不再统计
+                return;
+            }
+            int i = bucket(now);
+            totals[i]++;
+            if (outcome == Outcome.FAILURE) {
+                failures[i]++;
+                int total = sum(totals, now);
+                if (total >= minimumCalls && (double) sum(failures, now) / total >= failureRateThreshold) {
+                    open(now);
+                }
+            }
+        }
+
+        synchronized double failureRate(long now) {
+            int total = sum(totals, now);
+            return total == 0 ? 0 : (double) sum(failures, now) / total;
+        }
+
+        synchronized void reset() {
+            close();
+        }
+
+        private void open(long now) {
+            transition(State.OPEN);
+            openedAt = now;
+        }
+
+        private void close() {
+            transition(State.CLOSED);
+            Arrays.fill(totals, 0);
+            Arrays.fill(failures, 0);
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        }
+
+        private void transition(State to) {
+            State from = state;
+            if (from == to) {
+                return;
+            }
+            state = to;
+            if (to == State.OPEN) {
+                openedCount.incrementAndGet();
+            }
+            for (Listener listener : listeners) {
+                listener.onStateChange(route, from, to);
+            }
+        }
+
+        /**
+         * 当前时间所在的桶，过期的桶先清空
+         */
+        private int bucket(long now) {
+            long bucketNanos = windowNanos / BUCKETS;
+            long start = now - Math.floorMod(now, bucketNanos);
+            int i = (int) Math.floorMod(now / bucketNanos, (long) BUCKETS);
+            if (bucketStarts[i] != start) {
+                bucketStarts[i] = start;
+                totals[i] = 0;
+                failures[i] = 0;
+            }
+            return i;
+        }
+
+        /**
+         * 窗口内所有桶的合计
+         */
+        private int sum(int[] counts, long now) {
+            int sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (now - bucketStarts[i] < windowNanos) {
+                    sum += counts[i];
+                }
+            }
+            return sum;
+        }
+    }
+
+    public static class Builder {
+        private double failureRateThreshold = 0.5;
+        private int minimumCalls = 20;
+        private long windowNanos = TimeUnit.SECONDS.toNanos(10);
+        private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+        private int halfOpenMaxCalls = 3;
+        private Set<Integer> failureStatusCodes = new HashSet<>(Arrays.asList(500, 502, 503, 504));
+        private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+        /**
+         * 打开熔断器的失败率，默认 0.5
+         */
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+                throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]: " + failureRateThreshold);
+            }
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * 窗口内至少有多少个请求才计算失败率，默认 20
+         */
+        public Builder minimumCalls(int minimumCalls) {
+            if (minimumCalls < 1) {
+                throw new IllegalArgumentException("minimumCalls < 1");
+            }
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * 统计失败率的滑动窗口，默认 10 秒
+         */
+        public Builder window(long duration, TimeUnit unit) {
+            long nanos = unit.toNanos(duration);
+            if (nanos < BUCKETS) {
+                throw new IllegalArgumentException("window too small");
+            }
+            this.windowNanos = nanos;
+            return this;
+        }
+
+        /**
+         * 打开后多久开始放行探测请求，默认 30 秒
+         */
+        public Builder openDuration(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration < 0");
+            }
+            this.openDurationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * HALF_OPEN 时最多同时放行的探测请求数，也是关闭需要的连续成功数，默认 3
+         */
+        public Builder halfOpenMaxCalls(int halfOpenMaxCalls) {
+            if (halfOpenMaxCalls < 1) {
+                throw new IllegalArgumentException("halfOpenMaxCalls < 1");
+            }
+            this.halfOpenMaxCalls = halfOpenMaxCalls;
+            return this;
+        }
+
+        /**
+         * 算作失败的响应状态码，默认 500、502、503、504
+         */
+        public Builder failureStatusCodes(int... codes) {
+            Set<Integer> set = new HashSet<>();
+            for (int code : codes) {
+                set.add(code);
+            }
+            this.failureStatusCodes = set;
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener == null");
+            }
+            listeners.add(listener);
+            return this;
+        }
+
+        public CircuitBreakerInterceptor build() {
+            return new CircuitBreakerInterceptor(this);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并相同的并发请求（single-flight）
+ *
+ * 热点数据会让同一个 URL 同时收到几百个相同的 GET。
+ * 相同的请求（方法、URL 和指定的请求头都相同）已经在执行时，
+ * 新的请求不再发出，而是等待它的结果，每个等待者拿到一份独立的响应，响应体可以各自读取。
+ *
+ * 只合并没有请求体的 GET 和 HEAD；
+ * 响应体是流（例如 text/event-stream）或超过 64 KiB（从连接上流式读取）时无法共享，等待者会各自发出请求。
+ * 等待者会一直占用自己的线程（异步请求占用 Dispatcher 的名额）直到第一个请求完成，
+ * 等待期间仍然受自己的 cancel() 和整体超时（callTimeout）控制。
+ *
+ * 用法（作为应用拦截器，重试和重定向也只执行一次）：
+ * <pre>
+ * OkHttpClient client = new OkHttpClient.Builder()
+ *     .addInterceptor(new CoalescingInterceptor("Authorization", "Accept"))
+ *     .build();
+ * </pre>
+ */
+public class CoalescingInterceptor implements Interceptor {
+
+    // 参与比较的请求头，值不同的请求不会合并（例如不同用户的 Authorization）
+    private final List<String> keyHeaders;
+
+    // 执行中的请求，结果为 null 表示响应不能共享
+    private final Map<String, CompletableFuture<SharedResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * @param keyHeaders 除了方法和 URL 之外，还需要相同才能合并的请求头
+     */
+    public CoalescingInterceptor(String... keyHeaders) {
+        this.keyHeaders = Arrays.asList(keyHeaders.clone());
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!isCoalescable(request)) {
+            return chain.proceed(request);
+        }
+
+        String key = key(request);
+        RealCall call = chain.call() instanceof RealCall ? (RealCall) chain.call() : null;
+        CompletableFuture<SharedResponse> flight = new CompletableFuture<>();
+        CompletableFuture<SharedResponse> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            SharedResponse shared = await(existing, call);
+            if (shared != null) {
+                return shared.newResponse(request);
+            }
+            // 响应体是流不能共享，或者第一个请求延迟重试、被取消或超时了，自己发出请求
+            return chain.proceed(request);
+        }
+
+        executedCount.incrementAndGet();
+        SharedResponse shared = null;
+        try {
+            Response response = chain.proceed(request);
+            shared = SharedResponse.of(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            inFlight.remove(key, flight);
+            if (e instanceof RetryDeferredException || (call != null && (call.isCanceled() || call.isTimedOut()))) {
+                // 第一个请求要等 Retry-After 后重新排队，或者被自己的 cancel() 或整体超时结束，
+                // 这个错误不是请求本身的结果，等待者各自发出请求
+                flight.complete(null);
+            } else {
+                flight.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            // 先移除再通知，之后到达的请求会重新发出，不会拿到旧的结果
+            if (!flight.isDone()) {
+                inFlight.remove(key, flight);
+                flight.complete(shared);
+            }
+        }
+    }
+
+    /**
+     * 实际发出的请求数
+     */
+    public long executedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * 合并到其他请求上、没有单独发出的请求数
+     */
+    public long coalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * 正在执行、可以被合并的请求数
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private boolean isCoalescable(Request request) {
+        String method = request.method();
+        return ("GET".equals(method) || "HEAD".equals(method)) && request.body() == null;
+    }
+
+    private String key(Request request) {
+        StringBuilder key = new StringBuilder();
+        key.append(request.method()).append(' ').append(request.url());
+        for (String name : keyHeaders) {
+            String value = request.header(name);
+            if (value != null) {
+                key.append('\n').append(name).append(':').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * 等待第一个请求的结果；call 不为 null 时按它的取消和整体超时结束等待
+     */
+    private static SharedResponse await(CompletableFuture<SharedResponse> flight, RealCall call)
+            throws IOException {
+        if (call != null) {
+            call.awaitDone(flight);
+        }
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            // 包装一层，保留等待者自己的调用栈
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 可以共享的响应：状态行、响应头和完整的响应体
+     */
+    private static final class SharedResponse {
+        private final Response template;
+        private final byte[] body;
+        private final String contentType;
+
+        private SharedResponse(Response template, byte[] body, String contentType) {
+            this.template = template;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        /**
+         * 响应体已经完整读入内存时才能共享，否则返回 null
+         */
+        static SharedResponse of(Response response) {
+            ResponseBody body = response.body();
+            if (body == null) {
+                return new SharedResponse(response, null, null);
+            }
+            byte[] bytes = body.bufferedBytes();
+            if (bytes == null) {
+                return null;
+            }
+            return new SharedResponse(response, bytes, body.contentType());
+        }
+
+        /**
+         * 为等待者创建一份独立的响应，响应体共享同一个只读的字节数组
+         */
+        Response newResponse(Request request) {
+            Response.Builder builder = template.newBuilder().request(request);
+            builder.body(body != null ? ResponseBody.create(body, contentType) : null);
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.myokhttp;
+
+import java.io.IOException;
+
+/**
+ * 域名解析失败或所有地址都连接失败
+ *
+ * 由 ConnectInterceptor 抛出，原因（cause）是第一个失败的地址的错误，例如 ConnectException 或连接超时的
+ * SocketTimeoutException，其余地址的错误通过 getSuppressed() 获取；域名解析失败时原因是 UnknownHostException。
+ * 这时请求一定还没有发出，重试策略据此判断任何方法都可以安全重试。
+ */
+final class ConnectFailedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    ConnectFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
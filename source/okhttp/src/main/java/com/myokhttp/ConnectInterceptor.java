@@ -1,6 +1,12 @@
 package com.myokhttp;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 连接拦截器
@@ -23,8 +29,27 @@ public class ConnectInterceptor implements Interceptor {
         this.client = client;
     }
 
+    /**
+     * 一次网络尝试：建立（或复用）连接并交换请求和响应头
+     * 耗时和结果作为自适应并发限制的样本，不包括重试前的等待和重定向
+     */
     @Override
     public Response intercept(Chain chain) throws IOException {
+        RealCall call = chain.call() instanceof RealCall ? (RealCall) chain.call() : null;
+        long startNanos = System.nanoTime();
+        boolean dropped = true;
+        try {
+            Response response = exchange(chain, call);
+            dropped = response.code() == 429 || response.code() == 503;
+            return response;
+        } finally {
+            if (call != null) {
+                call.attemptFinished(System.nanoTime() - startNanos, dropped);
+            }
+        }
+    }
+
+    private Response exchange(Chain chain, RealCall call) throws IOException {
         Request request = chain.request();
         
         // 解析 URL，提取 host 和 port
@@ -37,39 +62,29 @@ public class ConnectInterceptor implements Interceptor {
         
         if (connection == null) {
             // 没有可复用的连接，创建新连接
-            connection = new RealConnection(host, port);
-            
-            try {
-                // 建立连接
-                connection.connect(
-                    chain.connectTimeoutMillis(),
-                    chain.readTimeoutMillis()
-                );
-                
-                // 标记为使用中
-                connection.acquire();
-            } catch (IOException e) {
-                // 连接失败
-                throw new IOException("无法连接到 " + host + ":" + port, e);
-            }
+            connection = connect(chain, host, port);
+        }
+
+        // 让 Call 知道正在使用的连接，超时时关闭它
+        if (call != null) {
+            call.connectionAcquired(connection);
         }
 
         try {
-            // 将连接保存到 Chain 中，供 CallServerInterceptor 使用
-            // 这里简化处理，直接传递给下一个拦截器
-            // 实际 OkHttp 会将连接保存在 StreamAllocation 中
-            
-            // 创建一个包装的 Chain，携带连接信息
-            ConnectedChain connectedChain = new ConnectedChain(chain, connection);
-            
-            // 执行下一个拦截器
-            Response response = chain.proceed(request);
-            
-            // 使用完毕，放回连接池
-            client.connectionPool().put(connection);
-            
+            // 把连接交给后面的拦截器（CallServerInterceptor 使用它读写数据）
+            Response response = proceedWithConnection(chain, request, connection);
+
+            // 响应体还在从连接上流式读取时，等它读完再释放连接：
+            // 在那之前 cancel() 仍然可以关闭连接，连接也不会被其他请求复用
+            RealConnection used = connection;
+            if (!connection.runAfterBody(() -> release(call, used))) {
+                release(call, connection);
+            }
             return response;
         } catch (IOException e) {
+            if (call != null) {
+                call.connectionReleased(connection);
+            }
             // 如果发生异常，关闭连接
             try {
                 connection.close();
@@ -80,6 +95,132 @@ public class ConnectInterceptor implements Interceptor {
         }
     }
 
+    /**
+     * 连接用完：可以复用时放回连接池，不能复用的连接（例如读到流结束）由响应体负责关闭
+     */
+    private void release(RealCall call, RealConnection connection) {
+        if (call != null) {
+            call.connectionReleased(connection);
+        }
+        if (connection.isReusable()) {
+            client.connectionPool().put(connection);
+        }
+    }
+
+    /**
+     * 连接超时，不超过整体超时剩余的时间
+     */
+    private static int connectTimeoutMillis(Chain chain) throws IOException {
+        int timeout = chain.connectTimeoutMillis();
+        if (chain.call() instanceof RealCall) {
+            long remaining = ((RealCall) chain.call()).remainingNanos();
+            if (remaining != Long.MAX_VALUE) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(remaining);
+                if (remainingMillis <= 0) {
+                    throw new InterruptedIOException("timeout");
+                }
+                if (timeout == 0 || remainingMillis < timeout) {
+                    timeout = (int) remainingMillis;
+                }
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * 连接主机的地址，直到有一个成功
+     * 开启 fastFallback 时并行连接（见 ConnectionRacer），否则依次连接；
+     * 失败的地址记录到 RouteDatabase，之后的请求和重试会先尝试其他地址
+     */
+    private RealConnection connect(Chain chain, String host, int port) throws IOException {
+        RouteDatabase routeDatabase = client.routeDatabase();
+        RealCall call = chain.call() instanceof RealCall ? (RealCall) chain.call() : null;
+        RealConnection connection;
+        try {
+            List<InetAddress> addresses = client.dns().lookup(host);
+            if (addresses == null || addresses.isEmpty()) {
+                // 自定义的 Dns 没有返回地址，没有可以连接的路由
+                throw new UnknownHostException(client.dns() + " returned no addresses for " + host);
+            }
+            RouteSelector selector = RouteSelector.of(host, port, addresses, routeDatabase);
+            if (client.fastFallback()) {
+                // 之后开始的连接可能超过截止时间，到时看门狗会关闭整个 racer
+                ConnectionRacer racer = new ConnectionRacer(routeDatabase, connectTimeoutMillis(chain),
+                    chain.readTimeoutMillis(), ConnectionRacer.DEFAULT_STAGGER_MILLIS);
+                // 请求被取消时关闭所有正在进行的连接
+                if (call != null) {
+                    call.connectStarted(racer);
+                }
+                connection = racer.race(selector);
+            } else {
+                connection = connectSequentially(chain, call, selector, routeDatabase);
+            }
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+                // 整体超时已到，不是连接失败
+                throw e;
+            }
+            // 域名解析失败或所有地址都连接失败
+            throw new ConnectFailedException("无法连接到 " + host + ":" + port, e);
+        } finally {
+            if (call != null) {
+                call.connectFinished();
+            }
+        }
+
+        // 标记为使用中
+        connection.acquire();
+        return connection;
+    }
+
+    private RealConnection connectSequentially(Chain chain, RealCall call, RouteSelector selector,
+            RouteDatabase routeDatabase) throws IOException {
+        IOException failure = null;
+        while (selector.hasNext()) {
+            // 每个地址重新计算，前面的地址已经用掉了一部分整体超时
+            int connectTimeout = connectTimeoutMillis(chain);
+            Route route = selector.next();
+            RealConnection connection = new RealConnection(route);
+            if (call != null) {
+                call.connectStarted(connection);
+            }
+            try {
+                connection.connect(connectTimeout, chain.readTimeoutMillis());
+                routeDatabase.connected(route);
+                return connection;
+            } catch (IOException e) {
+                closeQuietly(connection);
+                if (call != null && (call.isExchangeStopped() || call.isTimedOut())) {
+                    // 连接是被 cancel()、abandonExchange() 或看门狗关闭的，不是路由的问题
+                    throw e;
+                }
+                routeDatabase.failed(route);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+                System.out.println("连接失败，尝试下一个地址: " + route);
+            }
+        }
+        throw failure;
+    }
+
+    private static void closeQuietly(RealConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private Response proceedWithConnection(Chain chain, Request request, RealConnection connection)
+            throws IOException {
+        if (chain instanceof RealInterceptorChain) {
+            return ((RealInterceptorChain) chain).proceed(request, connection);
+        }
+        return chain.proceed(request);
+    }
+
     /**
      * 解析 URL，提取 host 和 port
      * 
@@ -117,53 +258,4 @@ public class ConnectInterceptor implements Interceptor {
             return new String[]{"localhost", "80"};
         }
     }
-
-    /**
-     * 包装的 Chain，携带连接信息
-     * 这是一个简化的实现，实际 OkHttp 更复杂
-     */
-    static class ConnectedChain implements Interceptor.Chain {
-        private final Interceptor.Chain delegate;
-        private final RealConnection connection;
-
-        ConnectedChain(Interceptor.Chain delegate, RealConnection connection) {
-            this.delegate = delegate;
-            this.connection = connection;
-        }
-
-        public RealConnection connection() {
-            return connection;
-        }
-
-        @Override
-        public Request request() {
-            return delegate.request();
-        }
-
-        @Override
-        public Response proceed(Request request) throws IOException {
-            return delegate.proceed(request);
-        }
-
-        @Override
-        public OkHttpClient client() {
-            return delegate.client();
-        }
-
-        @Override
-        public int connectTimeoutMillis() {
-            return delegate.connectTimeoutMillis();
-        }
-
-        @Override
-        public int readTimeoutMillis() {
-            return delegate.readTimeoutMillis();
-        }
-
-        @Override
-        public int writeTimeoutMillis() {
-            return delegate.writeTimeoutMillis();
-        }
-    }
 }
-
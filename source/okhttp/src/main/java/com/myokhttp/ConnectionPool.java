@@ -2,9 +2,12 @@ package com.myokhttp;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 连接池：管理和复用 HTTP 连接
@@ -19,6 +22,10 @@ import java.util.concurrent.TimeUnit;
  * 2. 如果没有，创建新连接
  * 3. 使用完毕后，放回池中
  * 4. 定期清理空闲连接
+ * 
+ * 加锁使用 ReentrantLock 而不是 synchronized：
+ * 虚拟线程在 synchronized 块中阻塞会钉住（pin）载体线程，
+ * 关闭 Socket 等 I/O 操作都放在锁外执行
  */
 public class ConnectionPool {
     
@@ -53,6 +60,8 @@ public class ConnectionPool {
     
     private Thread cleanupThread;
 
+    private final ReentrantLock lock = new ReentrantLock();
+
     /**
      * 创建连接池
      * 
@@ -78,44 +87,57 @@ public class ConnectionPool {
      * @param port 端口
      * @return 可复用的连接，如果没有返回 null
      */
-    public synchronized RealConnection get(String host, int port) {
-        Iterator<RealConnection> it = connections.iterator();
-        while (it.hasNext()) {
-            RealConnection connection = it.next();
-            
-            // 检查连接是否可用
-            if (connection.isClosed()) {
-                it.remove();
-                continue;
+    public RealConnection get(String host, int port) {
+        lock.lock();
+        try {
+            Iterator<RealConnection> it = connections.iterator();
+            while (it.hasNext()) {
+                RealConnection connection = it.next();
+                
+                // 检查连接是否可用
+                if (connection.isClosed()) {
+                    it.remove();
+                    continue;
+                }
+                
+                // 检查主机和端口是否匹配，正在被其他请求使用的连接不能共享
+                if (!connection.isInUse()
+                    && connection.getHost().equals(host) && connection.getPort() == port) {
+                    // 标记为使用中
+                    connection.acquire();
+                    return connection;
+                }
             }
             
-            // 检查主机和端口是否匹配
-            if (connection.getHost().equals(host) && connection.getPort() == port) {
-                // 标记为使用中
-                connection.acquire();
-                return connection;
-            }
+            return null;
+        } finally {
+            lock.unlock();
         }
-        
-        return null;
     }
 
     /**
      * 将连接放回池中
      */
-    public synchronized void put(RealConnection connection) {
-        // 启动清理线程（如果还没启动）
-        if (cleanupThread == null) {
-            cleanupThread = new Thread(cleanupRunnable, "OkHttp ConnectionPool");
-            cleanupThread.setDaemon(true);
-            cleanupThread.start();
+    public void put(RealConnection connection) {
+        lock.lock();
+        try {
+            // 启动清理线程（如果还没启动）
+            if (cleanupThread == null) {
+                cleanupThread = new Thread(cleanupRunnable, "OkHttp ConnectionPool");
+                cleanupThread.setDaemon(true);
+                cleanupThread.start();
+            }
+            
+            // 释放连接
+            connection.release();
+            
+            // 将连接加入池中（从池中取出的连接本来就在池里）
+            if (!connections.contains(connection)) {
+                connections.add(connection);
+            }
+        } finally {
+            lock.unlock();
         }
-        
-        // 释放连接
-        connection.release();
-        
-        // 将连接加入池中
-        connections.add(connection);
     }
 
     /**
@@ -124,87 +146,117 @@ public class ConnectionPool {
      * @param now 当前时间（纳秒）
      * @return 下次清理需要等待的时间（纳秒），如果没有连接返回 -1
      */
-    private synchronized long cleanup(long now) {
-        int inUseConnectionCount = 0;
-        int idleConnectionCount = 0;
-        RealConnection longestIdleConnection = null;
-        long longestIdleDurationNs = Long.MIN_VALUE;
-
-        // 遍历所有连接，找出最长空闲时间的连接
-        for (RealConnection connection : connections) {
-            // 检查是否正在使用
-            if (connection.isInUse()) {
-                inUseConnectionCount++;
-                continue;
-            }
+    private long cleanup(long now) {
+        RealConnection evicted;
+        long waitNanos;
+
+        lock.lock();
+        try {
+            int inUseConnectionCount = 0;
+            int idleConnectionCount = 0;
+            RealConnection longestIdleConnection = null;
+            long longestIdleDurationNs = Long.MIN_VALUE;
+
+            // 遍历所有连接，找出最长空闲时间的连接
+            for (RealConnection connection : connections) {
+                // 检查是否正在使用
+                if (connection.isInUse()) {
+                    inUseConnectionCount++;
+                    continue;
+                }
 
-            idleConnectionCount++;
+                idleConnectionCount++;
 
-            // 计算空闲时间
-            long idleDurationNs = now - connection.getIdleAtNanos();
-            if (idleDurationNs > longestIdleDurationNs) {
-                longestIdleDurationNs = idleDurationNs;
-                longestIdleConnection = connection;
+                // 计算空闲时间
+                long idleDurationNs = now - connection.getIdleAtNanos();
+                if (idleDurationNs > longestIdleDurationNs) {
+                    longestIdleDurationNs = idleDurationNs;
+                    longestIdleConnection = connection;
+                }
             }
-        }
 
-        // 如果空闲时间超过限制，或者空闲连接数超过最大值，关闭最长空闲的连接
-        if (longestIdleDurationNs >= this.keepAliveDurationNs
-            || idleConnectionCount > this.maxIdleConnections) {
-            connections.remove(longestIdleConnection);
-            try {
-                longestIdleConnection.close();
-            } catch (IOException e) {
-                // 忽略关闭异常
+            // 如果空闲时间超过限制，或者空闲连接数超过最大值，关闭最长空闲的连接
+            if (longestIdleDurationNs >= this.keepAliveDurationNs
+                || idleConnectionCount > this.maxIdleConnections) {
+                connections.remove(longestIdleConnection);
+                evicted = longestIdleConnection;
+                
+                // 立即进行下一次清理
+                waitNanos = 0;
+            } else if (idleConnectionCount > 0) {
+                // 有空闲连接，等待到最长空闲连接过期
+                return keepAliveDurationNs - longestIdleDurationNs;
+            } else if (inUseConnectionCount > 0) {
+                // 所有连接都在使用中，等待 keepAliveDuration 后再检查
+                return keepAliveDurationNs;
+            } else {
+                // 没有连接，停止清理线程
+                cleanupThread = null;
+                return -1;
             }
-            
-            // 立即进行下一次清理
-            return 0;
-        } else if (idleConnectionCount > 0) {
-            // 有空闲连接，等待到最长空闲连接过期
-            return keepAliveDurationNs - longestIdleDurationNs;
-        } else if (inUseConnectionCount > 0) {
-            // 所有连接都在使用中，等待 keepAliveDuration 后再检查
-            return keepAliveDurationNs;
-        } else {
-            // 没有连接，停止清理线程
-            cleanupThread = null;
-            return -1;
+        } finally {
+            lock.unlock();
         }
+
+        // 在锁外关闭连接
+        closeQuietly(evicted);
+        return waitNanos;
     }
 
     /**
      * 获取连接数
      */
-    public synchronized int connectionCount() {
-        return connections.size();
+    public int connectionCount() {
+        lock.lock();
+        try {
+            return connections.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * 获取空闲连接数
      */
-    public synchronized int idleConnectionCount() {
-        int count = 0;
-        for (RealConnection connection : connections) {
-            if (!connection.isInUse()) {
-                count++;
+    public int idleConnectionCount() {
+        lock.lock();
+        try {
+            int count = 0;
+            for (RealConnection connection : connections) {
+                if (!connection.isInUse()) {
+                    count++;
+                }
             }
+            return count;
+        } finally {
+            lock.unlock();
         }
-        return count;
     }
 
     /**
      * 关闭所有连接
      */
-    public synchronized void evictAll() {
-        for (RealConnection connection : connections) {
-            try {
-                connection.close();
-            } catch (IOException e) {
-                // 忽略
-            }
+    public void evictAll() {
+        List<RealConnection> evicted;
+        lock.lock();
+        try {
+            evicted = new ArrayList<>(connections);
+            connections.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        // 在锁外关闭连接
+        for (RealConnection connection : evicted) {
+            closeQuietly(connection);
         }
-        connections.clear();
     }
-}
 
+    private void closeQuietly(RealConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.myokhttp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并行连接（Happy Eyeballs）：主机有多个地址时，不再一个一个地等连接超时
+ *
+ * 按 RouteSelector 的顺序先连接第一个地址，staggerMillis 内没有连上就同时开始连接下一个，
+ * 某个地址连接失败时立即开始下一个。第一个连上的连接胜出，其他的全部关闭。
+ * 失败的路由记录到 RouteDatabase，胜出的路由从中移除。
+ *
+ * 每次连接在共享的连接线程池上执行，只有一个地址时直接在当前线程连接。
+ * 请求被取消时 close() 关闭所有连接，race() 立即失败。
+ */
+final class ConnectionRacer implements Closeable {
+
+    // 开始连接下一个地址前等待的时间（RFC 8305 建议 250 毫秒）
+    static final long DEFAULT_STAGGER_MILLIS = 250;
+
+    private static ExecutorService executor;
+
+    private final RouteDatabase routeDatabase;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long staggerNanos;
+
+    // 已经结束（成功或失败）的连接
+    private final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+    // close() 可能在其他线程遍历
+    private final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+    private volatile boolean canceled;
+
+    ConnectionRacer(RouteDatabase routeDatabase, int connectTimeout, int readTimeout, long staggerMillis) {
+        this.routeDatabase = routeDatabase;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.staggerNanos = TimeUnit.MILLISECONDS.toNanos(staggerMillis);
+    }
+
+    /**
+     * 返回第一个连上的连接
+     *
+     * @throws IOException 所有地址都连接失败，第一个失败是异常本身，其他的作为 suppressed
+     */
+    RealConnection race(RouteSelector selector) throws IOException {
+        Attempt winner = null;
+        IOException failure = null;
+        int running = 0;
+        long nextLaunchAt = System.nanoTime();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (selector.hasNext() && (running == 0 || now - nextLaunchAt >= 0)) {
+                    launch(new Attempt(selector.next()), running == 0 && !selector.hasNext());
+                    running++;
+                    nextLaunchAt = now + staggerNanos;
+                    continue;
+                }
+                if (running == 0) {
+                    break;
+                }
+
+                Attempt attempt = selector.hasNext()
+                    ? completed.poll(nextLaunchAt - now, TimeUnit.NANOSECONDS)
+                    : completed.take();
+                if (attempt == null) {
+                    // 到了开始下一个地址的时间
+                    continue;
+                }
+                running--;
+                if (canceled) {
+                    // 连接是被 close() 关闭的，不是路由的问题
+                    failure = new IOException("Canceled");
+                    break;
+                }
+                if (attempt.failure == null) {
+                    winner = attempt;
+                    break;
+                }
+                routeDatabase.failed(attempt.route);
+                if (failure == null) {
+                    failure = attempt.failure;
+                } else {
+                    failure.addSuppressed(attempt.failure);
+                }
+                // 失败了不用再等，立即开始下一个地址
+                nextLaunchAt = System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("interrupted");
+            interrupted.initCause(e);
+            failure = interrupted;
+        } finally {
+            // 关闭其他连接：还在连接的会从 connect() 中抛出异常，已经连上的直接关闭
+            for (Attempt attempt : attempts) {
+                if (attempt != winner) {
+                    closeQuietly(attempt.connection);
+                }
+            }
+        }
+
+        if (winner == null) {
+            throw failure;
+        }
+        if (canceled) {
+            // 胜出后被取消，close() 已经关闭了它
+            throw new IOException("Canceled");
+        }
+        routeDatabase.connected(winner.route);
+        if (attempts.size() > 1) {
+            System.out.println("并行连接胜出: " + winner.route + "（共尝试 " + attempts.size() + " 个地址）");
+        }
+        return winner.connection;
+    }
+
+    /**
+     * 关闭所有连接，包括已经胜出的；由取消请求的线程调用
+     */
+    @Override
+    public void close() {
+        canceled = true;
+        for (Attempt attempt : attempts) {
+            closeQuietly(attempt.connection);
+        }
+    }
+
+    /**
+     * 开始连接；只剩这一个连接要做时直接在当前线程执行
+     */
+    private void launch(Attempt attempt, boolean inline) {
+        attempts.add(attempt);
+        if (canceled) {
+            // 先加入再检查，close() 遍历时没有看到的连接在这里关闭
+            closeQuietly(attempt.connection);
+        }
+        if (inline) {
+            attempt.run();
+        } else {
+            executor().execute(attempt);
+        }
+    }
+
+    private static void closeQuietly(RealConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "OkHttp Connect");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * 连接一个地址
+     */
+    private final class Attempt implements Runnable {
+        final Route route;
+        final RealConnection connection;
+        // 在放入 completed 之前写入，由队列保证可见
+        IOException failure;
+
+        Attempt(Route route) {
+            this.route = route;
+            this.connection = new RealConnection(route);
+        }
+
+        @Override
+        public void run() {
+            try {
+                connection.connect(connectTimeout, readTimeout);
+            } catch (IOException e) {
+                failure = e;
+            }
+            completed.add(this);
+        }
+    }
+}
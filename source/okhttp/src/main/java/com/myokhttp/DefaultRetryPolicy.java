@@ -0,0 +1,201 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.net.ssl.SSLException;
+
+/**
+ * RetryPolicy.Builder 构建的默认重试策略
+ */
+final class DefaultRetryPolicy implements RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double budgetRatio;
+    private final double maxBudget;
+    private final boolean retryNonIdempotent;
+    private final long maxRetryAfterMillis;
+
+    // 重试预算（由 this 的锁保护）
+    private double budget;
+
+    DefaultRetryPolicy(RetryPolicy.Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.budgetRatio = builder.budgetRatio;
+        this.maxBudget = builder.maxBudget;
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+        this.maxRetryAfterMillis = builder.maxRetryAfterMillis;
+        this.budget = builder.maxBudget;
+    }
+
+    @Override
+    public synchronized void onRequest(Request request) {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    @Override
+    public long retryDelayMillis(Request request, IOException e, int attempt, long previousDelayMillis) {
+        if (attempt >= maxAttempts || !isRecoverable(e)) {
+            return -1;
+        }
+        // 请求还没有发出时重试总是安全的，否则只重试幂等请求
+        if (!isConnectFailure(e) && !retryNonIdempotent && !isIdempotent(request)) {
+            return -1;
+        }
+        if (!withdraw()) {
+            return -1;
+        }
+
+        // decorrelated jitter
+        long previous = Math.max(baseDelayMillis, previousDelayMillis);
+        long upper = Math.min(maxDelayMillis, previous * 3);
+        if (upper <= baseDelayMillis) {
+            return baseDelayMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(baseDelayMillis, upper + 1);
+    }
+
+    @Override
+    public long retryAfterMillis(Request request, Response response, int attempt) {
+        int code = response.code();
+        if (code != 408 && code != 429 && code != 503) {
+            return -1;
+        }
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+        long delayMillis = parseRetryAfter(response.header("Retry-After"), System.currentTimeMillis());
+        if (delayMillis < 0) {
+            // 408 表示服务器还没有处理请求，可以立即重试；429 和 503 没有说明什么时候恢复，不重试
+            if (code != 408) {
+                return -1;
+            }
+            delayMillis = 0;
+        }
+        if (delayMillis > maxRetryAfterMillis) {
+            return -1;
+        }
+        if (!withdraw()) {
+            return -1;
+        }
+        return delayMillis;
+    }
+
+    /**
+     * 解析 Retry-After：秒数或 HTTP 日期
+     *
+     * @return 需要等待的毫秒数（日期已经过去时为 0）；没有或无法解析时为 -1
+     */
+    static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        if (value.isEmpty()) {
+            return -1;
+        }
+        if (Character.isDigit(value.charAt(0))) {
+            try {
+                long seconds = Long.parseLong(value);
+                return seconds > Long.MAX_VALUE / 1000 ? Long.MAX_VALUE : seconds * 1000;
+            } catch (NumberFormatException e) {
+                // 超出 long 的范围
+                return Long.MAX_VALUE;
+            }
+        }
+        try {
+            long atMillis = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, atMillis - nowMillis);
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    /**
+     * 判断异常是否可以重试
+     */
+    private static boolean isRecoverable(IOException e) {
+        // 协议错误重试也一样
+        if (e instanceof ProtocolException) {
+            return false;
+        }
+        // 证书等 TLS 错误重试也一样
+        if (hasCause(e, SSLException.class)) {
+            return false;
+        }
+        // 域名不存在
+        if (hasCause(e, UnknownHostException.class)) {
+            return false;
+        }
+        // 取消或整个请求超时，不是网络问题（读写超时是 SocketTimeoutException，可以重试）
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 连接阶段失败，请求一定还没有发出
+     * ConnectInterceptor 用 ConnectFailedException 标记，包括连接超时（地址不可达、包被丢弃）
+     */
+    private static boolean isConnectFailure(IOException e) {
+        return hasCause(e, ConnectFailedException.class)
+            || hasCause(e, ConnectException.class)
+            || hasCause(e, NoRouteToHostException.class);
+    }
+
+    /**
+     * 幂等方法，或者带有 Idempotency-Key 请求头
+     */
+    private static boolean isIdempotent(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+            case "PUT":
+            case "DELETE":
+            case "TRACE":
+                return true;
+            default:
+                return request.header("Idempotency-Key") != null;
+        }
+    }
+
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxAttempts=" + maxAttempts + ", backoff=" + baseDelayMillis + ".." + maxDelayMillis
+            + "ms, budgetRatio=" + budgetRatio + ", maxRetryAfter=" + maxRetryAfterMillis + "ms}";
+    }
+}
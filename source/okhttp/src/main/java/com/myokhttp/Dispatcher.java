@@ -1,55 +1,191 @@
 package com.myokhttp;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 调度器：管理异步请求的执行
- * 
+ *
  * 职责：
  * 1. 管理线程池
  * 2. 控制并发请求数量
  * 3. 管理等待队列
+ *
+ * 每个主机的并发限制：
+ * - 每个主机的运行数记录在 hosts 中，不需要遍历 runningAsyncCalls 统计
+ * - 从等待队列取出时如果主机已满，请求会被移到该主机自己的暂停队列，
+ *   不再堵住后面其他主机的请求
+ * - 主机有请求完成时，它的暂停队列中最早的请求优先执行
+ *   （暂停的请求一定比等待队列中剩下的请求更早入队）
+ * 每个请求最多移动两次（等待队列 -> 暂停队列 -> 运行队列），提升是均摊 O(1) 的
+ *
+ * 并发设计：
+ * - 运行中的请求保存在并发集合中，全局和每个主机的运行数用原子计数器，
+ *   名额通过 CAS 获取和归还
+ * - 没有排队请求时，enqueue() 直接 CAS 占用名额执行，execute() 和完成时都不需要加锁
+ * - 只有存在排队请求（需要提升）或主机变为空闲（需要清理）时才进入 Dispatcher 的锁
+ * - 入队先增加 queuedCalls 再尝试占用名额，完成时先归还名额再读取 queuedCalls，
+ *   两边至少有一方能看到对方的修改，排队的请求不会因为竞争而被遗漏
+ *
+ * 优先级：
+ * - 每个优先级（Request.Priority）有自己的等待队列和暂停队列（Lane）
+ * - 默认严格优先：高优先级有可执行的请求时总是先执行它
+ * - setPriorityWeights() 切换为加权轮询（weighted round-robin），低优先级也能按比例得到名额；
+ *   一个队列暂时没有可执行的请求时直接轮到下一个，没用完的额度不保留到下一轮
+ * - setReservedHighPriorityRequests() 为 HIGH 预留名额，其他优先级最多使用 maxRequests - reserved
+ *
+ * 同一优先级内的出队顺序由 SchedulingStrategy 决定，默认先进先出；
+ * 使用 FairQueuing 可以按租户或主机加权公平调度
+ *
+ * 限流（setRateLimiter）：
+ * - 提升时先拿令牌，拿不到的请求移到该令牌桶的等待队列，不堵住其他键的请求
+ * - 令牌桶的等待队列有请求时，按最早的令牌可用时间安排一次唤醒，到时再提升
  */
 public class Dispatcher {
-    
+
     // 最大并发请求数
-    private int maxRequests = 64;
-    
+    private volatile int maxRequests = 64;
+
     // 每个主机最大并发请求数
-    private int maxRequestsPerHost = 5;
-    
+    private volatile int maxRequestsPerHost = 5;
+
     // 线程池
-    private ExecutorService executorService;
-    
+    private volatile ExecutorService executorService;
+
     // 正在运行的异步请求
-    private final Deque<RealCall.AsyncCall> runningAsyncCalls = new ArrayDeque<>();
-    
-    // 等待执行的异步请求
-    private final Deque<RealCall.AsyncCall> readyAsyncCalls = new ArrayDeque<>();
-    
+    private final Set<RealCall.AsyncCall> runningAsyncCalls = ConcurrentHashMap.newKeySet();
+
+    // 正在运行的异步请求数，用于 CAS 准入
+    private final AtomicInteger runningAsyncCount = new AtomicInteger();
+
+    // 每个优先级的等待队列，下标为 Request.Priority.ordinal()（由锁保护）
+    private final Lane[] lanes;
+
     // 正在运行的同步请求
-    private final Deque<RealCall> runningSyncCalls = new ArrayDeque<>();
+    private final Set<RealCall> runningSyncCalls = ConcurrentHashMap.newKeySet();
+
+    // 每个主机的运行数和暂停队列
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    // 等待中的请求总数（等待队列 + 所有暂停队列）
+    private final AtomicInteger queuedCalls = new AtomicInteger();
+
+    // 自适应并发限制器，为 null 时使用固定的 maxRequestsPerHost
+    private volatile AdaptiveLimiter adaptiveLimiter;
+
+    // 客户端限流，为 null 时不限流
+    private volatile RateLimiter rateLimiter;
+    // 等待令牌的请求的唤醒任务和唤醒时间（由锁保护）
+    private ScheduledFuture<?> pendingWakeup;
+    private long wakeupAtNanos;
+
+    // 按 Retry-After 等待重新排队的异步请求和它们的定时任务
+    private final ConcurrentHashMap<RealCall.AsyncCall, ScheduledFuture<?>> delayedCalls = new ConcurrentHashMap<>();
+
+    // 所有 Dispatcher 共享的定时器，用于唤醒等待令牌的请求和延迟重试的请求
+    private static ScheduledExecutorService wakeupTimer;
+
+    // 为 HIGH 优先级预留的名额
+    private volatile int reservedHighPriorityRequests = 0;
+
+    // 加权轮询的权重，为 null 表示严格优先（由锁保护）
+    private int[] priorityWeights;
+
+    // 同一优先级内的调度策略（由锁保护）
+    private SchedulingStrategy schedulingStrategy = SchedulingStrategy.FIFO;
+    // 加权轮询当前服务的队列和剩余额度
+    private int currentLane;
+    private int currentCredit;
+
+    // 使用虚拟线程时默认的最大并发请求数
+    // 虚拟线程阻塞在 Socket 读写上几乎没有开销，可以放开到上千
+    public static final int VIRTUAL_THREAD_MAX_REQUESTS = 4096;
+
+    public Dispatcher() {
+        Request.Priority[] priorities = Request.Priority.values();
+        lanes = new Lane[priorities.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
 
     /**
-     * 获取或创建线程池
+     * 使用指定的线程池
      */
-    public synchronized ExecutorService executorService() {
+    public Dispatcher(ExecutorService executorService) {
+        this();
         if (executorService == null) {
-            executorService = new ThreadPoolExecutor(
-                0,                      // 核心线程数
-                Integer.MAX_VALUE,      // 最大线程数
-                60,                     // 线程空闲存活时间
-                TimeUnit.SECONDS,
-                new SynchronousQueue<>(),
-                threadFactory("OkHttp Dispatcher")
-            );
+            throw new IllegalArgumentException("executorService == null");
+        }
+        this.executorService = executorService;
+    }
+
+    /**
+     * 创建使用虚拟线程执行异步请求的调度器
+     * 每个请求一个虚拟线程，最大并发请求数提高到 VIRTUAL_THREAD_MAX_REQUESTS
+     *
+     * @throws UnsupportedOperationException 运行环境低于 JDK 21
+     */
+    public static Dispatcher virtualThreads() {
+        Dispatcher dispatcher = new Dispatcher(newVirtualThreadPerTaskExecutor());
+        dispatcher.maxRequests = VIRTUAL_THREAD_MAX_REQUESTS;
+        return dispatcher;
+    }
+
+    /**
+     * 通过反射调用 Executors.newVirtualThreadPerTaskExecutor()，
+     * 这样源码仍然可以在低版本 JDK 上编译
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("虚拟线程需要 JDK 21 及以上版本", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法创建虚拟线程执行器", e);
+        }
+    }
+
+    /**
+     * 获取或创建线程池
+     */
+    public ExecutorService executorService() {
+        ExecutorService result = executorService;
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            if (executorService == null) {
+                executorService = new ThreadPoolExecutor(
+                    0,                      // 核心线程数
+                    Integer.MAX_VALUE,      // 最大线程数
+                    60,                     // 线程空闲存活时间
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    threadFactory("OkHttp Dispatcher")
+                );
+            }
+            return executorService;
         }
-        return executorService;
     }
 
     /**
@@ -69,71 +205,375 @@ public class Dispatcher {
     /**
      * 添加异步请求到队列
      */
-    public synchronized void enqueue(RealCall.AsyncCall call) {
-        if (runningAsyncCalls.size() < maxRequests) {
-            // 如果未达到最大并发数，直接执行
-            runningAsyncCalls.add(call);
-            executorService().execute(call);
-        } else {
-            // 否则加入等待队列
-            readyAsyncCalls.add(call);
+    public void enqueue(RealCall.AsyncCall call) {
+        // 快速路径：没有排队的请求并且全局、主机都有名额，直接执行，不加锁
+        if (queuedCalls.get() == 0 && tryAcquire(call)) {
+            call.executeOn(executorService());
+            return;
+        }
+
+        synchronized (this) {
+            // 加入对应优先级的等待队列，再按全局和主机的并发限制提升
+            queuedCalls.incrementAndGet();
+            lanes[call.priority().ordinal()].ready.add(call);
         }
+        promoteAndExecute();
+    }
+
+    /**
+     * 异步请求在 delayMillis 毫秒后重新排队（按 Retry-After 延迟重试）
+     * 等待期间不占用线程和并发名额，可以被 cancel() 立即结束
+     */
+    void enqueueLater(RealCall.AsyncCall call, long delayMillis) {
+        if (call.get().isCanceled()) {
+            call.canceledWhileQueued();
+            return;
+        }
+        // 在 compute 中提交，定时任务的 remove 会等到放入之后
+        delayedCalls.compute(call, (key, existing) -> wakeupTimer().schedule(() -> {
+            if (delayedCalls.remove(call) != null) {
+                enqueue(call);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS));
+        // 放入之前被取消时 cancelQueued() 找不到它，这里补上
+        if (call.get().isCanceled()) {
+            cancelQueued(call);
+        }
+    }
+
+    /**
+     * 等待延迟重试的异步请求数量
+     */
+    public int delayedCallsCount() {
+        return delayedCalls.size();
     }
 
     /**
      * 同步请求开始执行
      */
-    public synchronized void executed(RealCall call) {
+    public void executed(RealCall call) throws IOException {
+        RateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null) {
+            // 先等令牌，等待期间不占用并发名额，被取消或超时时立即结束
+            rateLimiter.acquire(call);
+        }
+        AdaptiveLimiter limiter = adaptiveLimiter;
+        if (limiter != null) {
+            // 同步请求和异步请求共用主机的自适应上限，名额不足时有限等待
+            limiter.acquire(call.request().host());
+            call.setLimiter(limiter);
+        }
         runningSyncCalls.add(call);
     }
 
     /**
      * 同步请求执行完成
      */
-    public synchronized void finished(RealCall call) {
+    public void finished(RealCall call) {
         runningSyncCalls.remove(call);
+        if (call.limiter() == null) {
+            return;
+        }
+        String name = call.request().host();
+        releaseLimiter(call, name);
+
+        // 归还的名额可能让该主机暂停的异步请求可以执行
+        if (queuedCalls.get() == 0) {
+            return;
+        }
+        synchronized (this) {
+            HostState host = hosts.get(name);
+            if (host != null && host.hasParked()) {
+                markResumable(host);
+            }
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * 把请求占用的自适应名额还给限制器（每次网络尝试的样本已经由 RealCall 提交）
+     */
+    private void releaseLimiter(RealCall call, String host) {
+        AdaptiveLimiter limiter = call.limiter();
+        if (limiter != null) {
+            call.setLimiter(null);
+            limiter.release(host);
+        }
     }
 
     /**
      * 异步请求执行完成
      */
-    public synchronized void finished(RealCall.AsyncCall call) {
+    public void finished(RealCall.AsyncCall call) {
         runningAsyncCalls.remove(call);
-        
-        // 尝试从等待队列中取出下一个请求执行
+        releaseLimiter(call.get(), call.host());
+        HostState host = hosts.get(call.host());
+        int hostRunning = host.running.decrementAndGet();
+        runningAsyncCount.decrementAndGet();
+
+        // 没有排队的请求，主机也没有变为空闲，不需要加锁
+        if (queuedCalls.get() == 0 && hostRunning > 0) {
+            return;
+        }
+
+        synchronized (this) {
+            if (host.hasParked()) {
+                // 主机空出名额，它的暂停请求可以继续
+                markResumable(host);
+            } else if (host.running.compareAndSet(0, HostState.RETIRED)) {
+                // 主机空闲并且没有暂停请求，移除它的状态
+                hosts.remove(host.name, host);
+            }
+        }
+
+        // 尝试从等待队列中取出请求执行
         promoteAndExecute();
     }
 
     /**
      * 从等待队列中提升请求到执行队列
+     *
+     * 每当并发名额可能变化时调用（入队、完成、调大限制），
+     * 一次取出所有可以执行的请求；
+     * 锁内只挑选请求，提交到线程池在锁外进行，缩短临界区
      */
     private void promoteAndExecute() {
-        if (runningAsyncCalls.size() >= maxRequests) {
-            return; // 已达到最大并发数
+        if (queuedCalls.get() == 0) {
+            return;
+        }
+
+        List<RealCall.AsyncCall> executableCalls = new ArrayList<>();
+        synchronized (this) {
+            RealCall.AsyncCall call;
+            while ((call = nextExecutableCall()) != null) {
+                executableCalls.add(call);
+            }
+            scheduleWakeup();
+        }
+
+        if (executableCalls.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = executorService();
+        for (RealCall.AsyncCall call : executableCalls) {
+            call.executeOn(executor);
+        }
+    }
+
+    /**
+     * 挑选下一个可以执行的请求并占用名额，没有返回 null
+     * 调用方必须持有锁
+     */
+    private RealCall.AsyncCall nextExecutableCall() {
+        if (runningAsyncCount.get() >= maxRequests) {
+            return null; // 已达到最大并发数
         }
+        if (priorityWeights == null) {
+            // 严格优先：从高到低，第一个有可执行请求的队列
+            for (Lane lane : lanes) {
+                RealCall.AsyncCall call = lane.next();
+                if (call != null) {
+                    return call;
+                }
+            }
+            return null;
+        }
+        return nextWeighted();
+    }
 
-        if (readyAsyncCalls.isEmpty()) {
-            return; // 等待队列为空
+    /**
+     * 加权轮询：每轮依次访问各优先级，每个队列最多连续执行 weight 个请求，
+     * 没有可执行的请求时放弃本轮剩余的额度
+     */
+    private RealCall.AsyncCall nextWeighted() {
+        for (int visited = 0; visited <= lanes.length; visited++) {
+            if (currentCredit > 0) {
+                RealCall.AsyncCall call = lanes[currentLane].next();
+                if (call != null) {
+                    currentCredit--;
+                    return call;
+                }
+            }
+            // 当前队列额度用完或没有可执行的请求，轮到下一个
+            currentLane = (currentLane + 1) % lanes.length;
+            currentCredit = priorityWeights[currentLane];
         }
+        return null;
+    }
 
-        // 从等待队列取出请求
-        RealCall.AsyncCall call = readyAsyncCalls.removeFirst();
+    /**
+     * 不加锁地为请求占用全局和主机的名额
+     */
+    private boolean tryAcquire(RealCall.AsyncCall call) {
+        if (!tryAcquireGlobal(call.priority().ordinal())) {
+            return false;
+        }
+        RateLimiter.Bucket bucket = null;
+        RateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null) {
+            bucket = rateLimiter.bucket(call.get().request());
+            if (!bucket.tryAcquire(System.nanoTime())) {
+                runningAsyncCount.decrementAndGet();
+                return false;
+            }
+        }
+        if (!tryAcquireHost(liveHost(call.host()), call)) {
+            runningAsyncCount.decrementAndGet();
+            if (bucket != null) {
+                bucket.refund();
+            }
+            return false;
+        }
         runningAsyncCalls.add(call);
-        executorService().execute(call);
+        return true;
+    }
+
+    /**
+     * 占用主机的名额
+     * 设置了自适应限制器时由它决定主机的上限，不再使用 maxRequestsPerHost
+     */
+    private boolean tryAcquireHost(HostState host, RealCall.AsyncCall call) {
+        AdaptiveLimiter limiter = adaptiveLimiter;
+        if (limiter == null) {
+            return host.tryAcquire(maxRequestsPerHost);
+        }
+        if (!limiter.tryAcquire(host.name)) {
+            return false;
+        }
+        if (!host.tryAcquire(Integer.MAX_VALUE)) {
+            limiter.release(host.name);
+            return false;
+        }
+        call.get().setLimiter(limiter);
+        return true;
+    }
+
+    /**
+     * CAS 占用一个全局名额
+     * 非 HIGH 优先级不能使用为 HIGH 预留的名额
+     */
+    private boolean tryAcquireGlobal(int lane) {
+        // 两个设置并发修改时可能短暂出现 reserved >= maxRequests，其他优先级至少保留 1 个名额
+        int limit = lane == Request.Priority.HIGH.ordinal()
+                ? maxRequests
+                : Math.max(1, maxRequests - reservedHighPriorityRequests);
+        while (true) {
+            int running = runningAsyncCount.get();
+            if (running >= limit) {
+                return false;
+            }
+            if (runningAsyncCount.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取主机的状态，遇到已经退役（即将从 hosts 中移除）的状态时帮助移除并重新获取
+     */
+    private HostState liveHost(String name) {
+        while (true) {
+            HostState host = hosts.computeIfAbsent(name, key -> new HostState(key, lanes.length));
+            if (host.running.get() != HostState.RETIRED) {
+                return host;
+            }
+            hosts.remove(name, host);
+        }
+    }
+
+    /**
+     * 主机空出名额，在它有暂停请求的每个优先级中标记为可恢复
+     */
+    private void markResumable(HostState host) {
+        for (Lane lane : lanes) {
+            if (!host.parked[lane.index].isEmpty()) {
+                lane.markResumable(host);
+            }
+        }
+    }
+
+    /**
+     * 把排队中（等待队列、令牌桶等待队列、主机的暂停队列或等待延迟重试）的请求移除，
+     * 并以 "Canceled" 失败结束；请求已经开始执行或已经结束时不做任何事
+     *
+     * @return 是否从队列中移除了请求
+     */
+    boolean cancelQueued(RealCall.AsyncCall call) {
+        ScheduledFuture<?> delayed = delayedCalls.remove(call);
+        if (delayed != null) {
+            delayed.cancel(false);
+            call.canceledWhileQueued();
+            return true;
+        }
+        if (queuedCalls.get() == 0) {
+            return false;
+        }
+        boolean removed = false;
+        synchronized (this) {
+            Lane lane = lanes[call.priority().ordinal()];
+            if (lane.ready.remove(call)) {
+                removed = true;
+            } else {
+                HostState host = hosts.get(call.host());
+                if (host != null && host.parked[lane.index].remove(call)) {
+                    removed = true;
+                } else {
+                    Iterator<Deque<RealCall.AsyncCall>> iterator = lane.throttled.values().iterator();
+                    while (iterator.hasNext()) {
+                        Deque<RealCall.AsyncCall> throttled = iterator.next();
+                        if (throttled.remove(call)) {
+                            if (throttled.isEmpty()) {
+                                iterator.remove();
+                            }
+                            removed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (removed) {
+                queuedCalls.decrementAndGet();
+            }
+        }
+        if (removed) {
+            call.canceledWhileQueued();
+        }
+        return removed;
     }
 
     /**
      * 取消所有请求
+     * 排队中的请求先在锁内复制出来再取消：cancel() 会进入 cancelQueued() 修改这些队列，
+     * 并在当前线程回调 onFailure，不能在持有锁时执行
      */
-    public synchronized void cancelAll() {
-        for (RealCall.AsyncCall call : readyAsyncCalls) {
+    public void cancelAll() {
+        List<RealCall.AsyncCall> queued = new ArrayList<>();
+        synchronized (this) {
+            for (Lane lane : lanes) {
+                queued.addAll(lane.ready);
+                for (Deque<RealCall.AsyncCall> throttled : lane.throttled.values()) {
+                    queued.addAll(throttled);
+                }
+            }
+
+            for (HostState host : hosts.values()) {
+                for (Deque<RealCall.AsyncCall> parked : host.parked) {
+                    queued.addAll(parked);
+                }
+            }
+        }
+        for (RealCall.AsyncCall call : queued) {
             call.get().cancel();
         }
-        
+
         for (RealCall.AsyncCall call : runningAsyncCalls) {
             call.get().cancel();
         }
-        
+
+        for (RealCall.AsyncCall call : delayedCalls.keySet()) {
+            call.get().cancel();
+        }
+
         for (RealCall call : runningSyncCalls) {
             call.cancel();
         }
@@ -142,37 +582,376 @@ public class Dispatcher {
     /**
      * 获取正在运行的请求数量
      */
-    public synchronized int runningCallsCount() {
-        return runningAsyncCalls.size() + runningSyncCalls.size();
+    public int runningCallsCount() {
+        return runningAsyncCount.get() + runningSyncCalls.size();
     }
 
     /**
      * 获取等待执行的请求数量
      */
-    public synchronized int queuedCallsCount() {
-        return readyAsyncCalls.size();
+    public int queuedCallsCount() {
+        return queuedCalls.get();
     }
 
-    public synchronized void setMaxRequests(int maxRequests) {
+    /**
+     * 获取某个主机正在运行的异步请求数量
+     */
+    public int runningCallsForHost(String host) {
+        HostState state = hosts.get(host);
+        return state != null ? Math.max(state.running.get(), 0) : 0;
+    }
+
+    /**
+     * 调大限制后立即提升等待中的请求
+     * 必须大于为 HIGH 预留的名额，否则其他优先级没有名额可用
+     */
+    public void setMaxRequests(int maxRequests) {
         if (maxRequests < 1) {
             throw new IllegalArgumentException("max < 1: " + maxRequests);
         }
+        if (maxRequests <= reservedHighPriorityRequests) {
+            throw new IllegalArgumentException("maxRequests <= reservedHighPriorityRequests: " + maxRequests);
+        }
         this.maxRequests = maxRequests;
+        promoteAndExecute();
     }
 
-    public synchronized int getMaxRequests() {
+    public int getMaxRequests() {
         return maxRequests;
     }
 
-    public synchronized void setMaxRequestsPerHost(int maxRequestsPerHost) {
+    /**
+     * 调大限制后，有暂停请求的主机立即恢复
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
         if (maxRequestsPerHost < 1) {
             throw new IllegalArgumentException("max < 1: " + maxRequestsPerHost);
         }
-        this.maxRequestsPerHost = maxRequestsPerHost;
+        synchronized (this) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            for (HostState host : hosts.values()) {
+                markResumable(host);
+            }
+        }
+        promoteAndExecute();
     }
 
-    public synchronized int getMaxRequestsPerHost() {
+    public int getMaxRequestsPerHost() {
         return maxRequestsPerHost;
     }
-}
 
+    /**
+     * 设置自适应并发限制器，设置后每个主机的上限由它根据 RTT 和错误动态调整，
+     * maxRequestsPerHost 不再生效；传入 null 恢复使用 maxRequestsPerHost
+     * 一个限制器只能给一个 Dispatcher 使用
+     */
+    public void setAdaptiveLimiter(AdaptiveLimiter limiter) {
+        synchronized (this) {
+            this.adaptiveLimiter = limiter;
+            for (HostState host : hosts.values()) {
+                markResumable(host);
+            }
+        }
+        promoteAndExecute();
+    }
+
+    public AdaptiveLimiter getAdaptiveLimiter() {
+        return adaptiveLimiter;
+    }
+
+    /**
+     * 设置客户端限流，传入 null 取消限流（已经在等待令牌的请求不再等待）
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        promoteAndExecute();
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * 有请求在等待令牌时，在最早的令牌可用时安排一次提升
+     * 调用方必须持有锁
+     */
+    private void scheduleWakeup() {
+        long now = System.nanoTime();
+        long earliest = Long.MAX_VALUE;
+        for (Lane lane : lanes) {
+            for (RateLimiter.Bucket bucket : lane.throttled.keySet()) {
+                long wait = bucket.nanosUntilPermit(now);
+                // 已经有令牌但没有执行，说明在等并发名额，请求完成时会再提升
+                if (wait > 0) {
+                    earliest = Math.min(earliest, wait);
+                }
+            }
+        }
+        if (earliest == Long.MAX_VALUE) {
+            return;
+        }
+        long wakeupAt = now + earliest;
+        if (pendingWakeup != null && !pendingWakeup.isDone() && wakeupAtNanos - wakeupAt <= 0) {
+            return; // 已经安排了更早的唤醒
+        }
+        if (pendingWakeup != null) {
+            pendingWakeup.cancel(false);
+        }
+        wakeupAtNanos = wakeupAt;
+        pendingWakeup = wakeupTimer().schedule(this::promoteAndExecute, earliest, TimeUnit.NANOSECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService wakeupTimer() {
+        if (wakeupTimer == null) {
+            wakeupTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "OkHttp Dispatcher Wakeup");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return wakeupTimer;
+    }
+
+    /**
+     * 为 HIGH 优先级预留名额，其他优先级最多同时运行 maxRequests - reserved 个请求
+     * 这样延迟敏感的请求总能找到空位；reserved 必须小于 maxRequests，之后 setMaxRequests() 也会检查
+     */
+    public void setReservedHighPriorityRequests(int reserved) {
+        if (reserved < 0 || reserved >= maxRequests) {
+            throw new IllegalArgumentException("reserved < 0 || reserved >= maxRequests: " + reserved);
+        }
+        this.reservedHighPriorityRequests = reserved;
+        promoteAndExecute();
+    }
+
+    public int getReservedHighPriorityRequests() {
+        return reservedHighPriorityRequests;
+    }
+
+    /**
+     * 使用加权轮询：每轮 HIGH、NORMAL、LOW 分别最多提升 high、normal、low 个请求
+     * 例如 (8, 4, 1) 表示大致按 8:4:1 分配空出的名额，低优先级不会被饿死
+     */
+    public void setPriorityWeights(int high, int normal, int low) {
+        if (high < 1 || normal < 1 || low < 1) {
+            throw new IllegalArgumentException("weight < 1");
+        }
+        synchronized (this) {
+            this.priorityWeights = new int[] {high, normal, low};
+            this.currentLane = 0;
+            this.currentCredit = high;
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * 使用严格优先（默认）：高优先级有可执行的请求时总是先执行
+     */
+    public void setStrictPriority() {
+        synchronized (this) {
+            this.priorityWeights = null;
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * 设置同一优先级内的调度策略
+     * 已经排队的请求按原来的顺序转移到新策略的队列中
+     */
+    public void setSchedulingStrategy(SchedulingStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy == null");
+        }
+        synchronized (this) {
+            this.schedulingStrategy = strategy;
+            for (Lane lane : lanes) {
+                Queue<RealCall.AsyncCall> old = lane.ready;
+                lane.ready = newReadyQueue();
+                RealCall.AsyncCall call;
+                while ((call = old.poll()) != null) {
+                    lane.ready.add(call);
+                }
+            }
+        }
+    }
+
+    public synchronized SchedulingStrategy getSchedulingStrategy() {
+        return schedulingStrategy;
+    }
+
+    private Queue<RealCall.AsyncCall> newReadyQueue() {
+        return schedulingStrategy.newQueue(call -> call.get().request());
+    }
+
+    /**
+     * 某个优先级的等待队列（等待队列 + 各主机的暂停队列）
+     * 所有方法都在 Dispatcher 的锁内调用
+     */
+    private final class Lane {
+        final int index;
+        // 等待执行的异步请求，出队顺序由调度策略决定
+        Queue<RealCall.AsyncCall> ready = newReadyQueue();
+        // 有这个优先级的暂停请求并且有空余名额的主机，优先处理
+        final Deque<HostState> resumableHosts = new ArrayDeque<>();
+        // 没有令牌而等待的请求，按令牌桶分组，每组按入队顺序排列
+        final Map<RateLimiter.Bucket, Deque<RealCall.AsyncCall>> throttled = new LinkedHashMap<>();
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        /**
+         * 挑选这个优先级的下一个可执行请求并占用名额，没有返回 null
+         */
+        RealCall.AsyncCall next() {
+            // 优先执行主机空出名额后恢复的暂停请求
+            while (!resumableHosts.isEmpty()) {
+                HostState host = resumableHosts.peekFirst();
+                Deque<RealCall.AsyncCall> parked = host.parked[index];
+                if (parked.isEmpty()) {
+                    host.resumable[index] = false;
+                    resumableHosts.removeFirst();
+                    continue;
+                }
+                if (!tryAcquireGlobal(index)) {
+                    return null; // 已达到最大并发数
+                }
+                if (!tryAcquireHost(host, parked.peekFirst())) {
+                    runningAsyncCount.decrementAndGet();
+                    host.resumable[index] = false;
+                    resumableHosts.removeFirst();
+                    continue;
+                }
+                RealCall.AsyncCall call = parked.removeFirst();
+                queuedCalls.decrementAndGet();
+                runningAsyncCalls.add(call);
+                return call;
+            }
+
+            // 然后是令牌已经补充的等待令牌的请求
+            RateLimiter rateLimiter = Dispatcher.this.rateLimiter;
+            if (!throttled.isEmpty()) {
+                long now = System.nanoTime();
+                Iterator<Map.Entry<RateLimiter.Bucket, Deque<RealCall.AsyncCall>>> iterator =
+                        throttled.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<RateLimiter.Bucket, Deque<RealCall.AsyncCall>> entry = iterator.next();
+                    if (!tryAcquireGlobal(index)) {
+                        return null; // 已达到最大并发数
+                    }
+                    if (rateLimiter != null && !entry.getKey().tryAcquire(now)) {
+                        runningAsyncCount.decrementAndGet();
+                        continue;
+                    }
+                    Deque<RealCall.AsyncCall> calls = entry.getValue();
+                    RealCall.AsyncCall call = calls.removeFirst();
+                    if (calls.isEmpty()) {
+                        iterator.remove();
+                    }
+                    if (admit(call)) {
+                        return call;
+                    }
+                }
+            }
+
+            // 从等待队列取出请求，没有令牌的请求移到令牌桶的等待队列，主机已满的请求移到该主机的暂停队列
+            while (!ready.isEmpty()) {
+                if (!tryAcquireGlobal(index)) {
+                    return null; // 已达到最大并发数
+                }
+                RealCall.AsyncCall call = ready.poll();
+                if (rateLimiter != null) {
+                    RateLimiter.Bucket bucket = rateLimiter.bucket(call.get().request());
+                    Deque<RealCall.AsyncCall> waiting = throttled.get(bucket);
+                    // 同一个令牌桶已经有请求在等，排在它们后面
+                    if (waiting != null || !bucket.tryAcquire(System.nanoTime())) {
+                        runningAsyncCount.decrementAndGet();
+                        if (waiting == null) {
+                            waiting = new ArrayDeque<>();
+                            throttled.put(bucket, waiting);
+                        }
+                        waiting.add(call);
+                        rateLimiter.recordThrottled();
+                        continue;
+                    }
+                }
+                if (admit(call)) {
+                    return call;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 已经占用全局名额和令牌的请求，再占用主机的名额；主机已满时移到该主机的暂停队列
+         */
+        private boolean admit(RealCall.AsyncCall call) {
+            HostState host = liveHost(call.host());
+            if (!tryAcquireHost(host, call)) {
+                runningAsyncCount.decrementAndGet();
+                host.parked[index].add(call);
+                return false;
+            }
+            queuedCalls.decrementAndGet();
+            runningAsyncCalls.add(call);
+            return true;
+        }
+
+        void markResumable(HostState host) {
+            if (!host.resumable[index]) {
+                host.resumable[index] = true;
+                resumableHosts.add(host);
+            }
+        }
+    }
+
+    /**
+     * 单个主机的并发状态
+     */
+    private static final class HostState {
+        // running 为这个值表示状态已退役，不能再占用名额
+        static final int RETIRED = -1;
+
+        final String name;
+        // 正在运行的异步请求数
+        final AtomicInteger running = new AtomicInteger();
+        // 每个优先级因为主机已满而暂停的请求，按入队顺序排列（由 Dispatcher 的锁保护）
+        final Deque<RealCall.AsyncCall>[] parked;
+        // 是否已经在对应优先级的 resumableHosts 中（由 Dispatcher 的锁保护）
+        final boolean[] resumable;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        HostState(String name, int lanes) {
+            this.name = name;
+            this.parked = new Deque[lanes];
+            for (int i = 0; i < lanes; i++) {
+                parked[i] = new ArrayDeque<>();
+            }
+            this.resumable = new boolean[lanes];
+        }
+
+        boolean hasParked() {
+            for (Deque<RealCall.AsyncCall> calls : parked) {
+                if (!calls.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * CAS 占用一个名额，已满或已退役时返回 false
+         */
+        boolean tryAcquire(int maxRequestsPerHost) {
+            while (true) {
+                int current = running.get();
+                if (current == RETIRED || current >= maxRequestsPerHost) {
+                    return false;
+                }
+                if (running.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.myokhttp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 域名解析
+ *
+ * 通过 OkHttpClient.Builder.dns() 设置，默认使用带缓存的 CachingDns。
+ * 返回的地址按顺序作为路由尝试（见 RouteSelector）。
+ */
+public interface Dns {
+
+    /**
+     * 使用 JVM 的 InetAddress.getAllByName() 解析
+     */
+    Dns SYSTEM = new Dns() {
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            if (hostname == null) {
+                throw new UnknownHostException("hostname == null");
+            }
+            return Arrays.asList(InetAddress.getAllByName(hostname));
+        }
+
+        @Override
+        public String toString() {
+            return "Dns.SYSTEM";
+        }
+    };
+
+    /**
+     * 返回主机名的所有地址，至少一个
+     *
+     * @throws UnknownHostException 无法解析
+     */
+    List<InetAddress> lookup(String hostname) throws UnknownHostException;
+}
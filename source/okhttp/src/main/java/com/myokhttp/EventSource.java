@@ -0,0 +1,56 @@
+package com.myokhttp;
+
+import java.io.IOException;
+
+/**
+ * Server-Sent Events 连接
+ * 
+ * 通过 OkHttpClient.newEventSource() 创建，创建后立即开始连接。
+ * 连接断开后会带上 Last-Event-ID 自动重连，直到调用 cancel() 或连续多次连接失败
+ */
+public interface EventSource {
+
+    /**
+     * 获取原始请求
+     */
+    Request request();
+
+    /**
+     * 关闭事件流并停止重连
+     */
+    void cancel();
+
+    /**
+     * 事件监听器
+     * 所有回调都在后台线程执行
+     */
+    interface Listener {
+        /**
+         * 连接建立（每次重连成功也会调用）
+         */
+        default void onOpen(EventSource eventSource, Response response) {
+        }
+
+        /**
+         * 收到一个事件
+         * 
+         * @param id 最近一次的事件 id，可能为 null
+         * @param type 事件类型，可能为 null
+         */
+        void onEvent(EventSource eventSource, String id, String type, String data);
+
+        /**
+         * 事件流被关闭（调用 cancel() 或服务器返回 204），不会再重连
+         */
+        default void onClosed(EventSource eventSource) {
+        }
+
+        /**
+         * 事件流失败且不会再重连
+         * 
+         * @param response 服务器的响应，连接失败时为 null
+         */
+        default void onFailure(EventSource eventSource, IOException e, Response response) {
+        }
+    }
+}
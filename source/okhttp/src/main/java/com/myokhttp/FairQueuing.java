@@ -0,0 +1,358 @@
+package com.myokhttp;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 加权公平调度（deficit round-robin）
+ *
+ * 按调度键（租户或主机）把等待中的请求分成多个子队列，
+ * 轮流从每个有请求的子队列中取出最多 weight 个请求。
+ * 某个键一次提交大量请求时，只会排在自己的子队列里，其他键的请求不会被饿死。
+ *
+ * 每个请求的开销都是 1，所以 deficit 就是本轮剩余可以取出的请求数；
+ * 子队列取空后离开轮转并清零 deficit，下次有请求时从队尾重新加入
+ *
+ * 用法：
+ * <pre>
+ * FairQueuing fair = FairQueuing.byTenant();
+ * fair.setWeight("checkout", 4);
+ * client.dispatcher().setSchedulingStrategy(fair);
+ * </pre>
+ */
+public final class FairQueuing implements SchedulingStrategy {
+
+    // 未设置租户的请求使用的调度键
+    public static final String DEFAULT_TENANT = "default";
+
+    private final Function<Request, String> keyFunction;
+    private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+    private volatile int defaultWeight = 1;
+
+    // 没有排队的请求超过这么久的键，移除它的统计，键空间无限（例如按用户调度）时不会一直增长
+    private static final long IDLE_STATS_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // 每个键的统计，跨所有优先级的队列累计
+    private final Map<String, KeyStats> stats = new ConcurrentHashMap<>();
+    // 下一次清理空闲统计的时间
+    private final AtomicLong nextPruneAt = new AtomicLong(System.nanoTime() + IDLE_STATS_NANOS);
+
+    /**
+     * @param keyFunction 计算请求的调度键，不能返回 null
+     */
+    public FairQueuing(Function<Request, String> keyFunction) {
+        if (keyFunction == null) {
+            throw new IllegalArgumentException("keyFunction == null");
+        }
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * 按主机公平调度
+     */
+    public static FairQueuing byHost() {
+        return new FairQueuing(Request::host);
+    }
+
+    /**
+     * 按 Request.tenant() 公平调度，未设置租户的请求归入 DEFAULT_TENANT
+     */
+    public static FairQueuing byTenant() {
+        return new FairQueuing(request ->
+            request.tenant() != null ? request.tenant() : DEFAULT_TENANT);
+    }
+
+    /**
+     * 设置某个键的权重：每轮最多连续取出 weight 个请求
+     * 新的权重从该键下一轮开始生效
+     */
+    public FairQueuing setWeight(String key, int weight) {
+        if (key == null) {
+            throw new IllegalArgumentException("key == null");
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight < 1: " + weight);
+        }
+        weights.put(key, weight);
+        return this;
+    }
+
+    /**
+     * 设置没有单独配置的键的权重，默认 1
+     */
+    public FairQueuing setDefaultWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight < 1: " + weight);
+        }
+        this.defaultWeight = weight;
+        return this;
+    }
+
+    public int weight(String key) {
+        Integer weight = weights.get(key);
+        return weight != null ? weight : defaultWeight;
+    }
+
+    /**
+     * 每个键的统计（只读视图）
+     * 空闲（没有排队的请求）超过 1 分钟的键会被移除，再次有请求时从 0 开始统计
+     */
+    public Map<String, KeyStats> stats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Jain 公平指数：按权重归一化后的累计出队数越接近，值越接近 1；
+     * 只有一个键占满所有名额时为 1/n。没有出队记录时返回 1
+     */
+    public double fairnessIndex() {
+        double sum = 0;
+        double sumOfSquares = 0;
+        int n = 0;
+        for (KeyStats keyStats : stats.values()) {
+            long dispatched = keyStats.dispatched();
+            if (dispatched == 0 && keyStats.queued() == 0) {
+                continue; // 没有参与竞争
+            }
+            double share = (double) dispatched / weight(keyStats.key);
+            sum += share;
+            sumOfSquares += share * share;
+            n++;
+        }
+        if (n == 0 || sumOfSquares == 0) {
+            return 1.0;
+        }
+        return sum * sum / (n * sumOfSquares);
+    }
+
+    @Override
+    public <T> Queue<T> newQueue(Function<T, Request> requestOf) {
+        return new FairQueue<>(requestOf);
+    }
+
+    @Override
+    public String toString() {
+        return "FairQueuing{weights=" + weights + ", defaultWeight=" + defaultWeight + "}";
+    }
+
+    private KeyStats statsFor(String key) {
+        return stats.computeIfAbsent(key, KeyStats::new);
+    }
+
+    /**
+     * 移除空闲的键的统计，最多每 IDLE_STATS_NANOS 扫描一次
+     */
+    private void pruneIdleStats(long now) {
+        long pruneAt = nextPruneAt.get();
+        if (now - pruneAt < 0 || !nextPruneAt.compareAndSet(pruneAt, now + IDLE_STATS_NANOS)) {
+            return;
+        }
+        stats.values().removeIf(keyStats ->
+            keyStats.queued() == 0 && now - keyStats.lastActiveNanos >= IDLE_STATS_NANOS);
+    }
+
+    /**
+     * 某个键的统计
+     * 排队时间只统计在 Dispatcher 等待队列中的时间，不包括主机已满时在暂停队列中的时间
+     */
+    public static final class KeyStats {
+        private final String key;
+        private final AtomicLong queued = new AtomicLong();
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong totalDelayNanos = new AtomicLong();
+        private final AtomicLong maxDelayNanos = new AtomicLong();
+        // 最近一次入队或出队的时间
+        volatile long lastActiveNanos = System.nanoTime();
+
+        KeyStats(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        /**
+         * 当前排队的请求数
+         */
+        public long queued() {
+            return queued.get();
+        }
+
+        /**
+         * 累计出队的请求数
+         */
+        public long dispatched() {
+            return dispatched.get();
+        }
+
+        public long averageQueueDelayMillis() {
+            long count = dispatched.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalDelayNanos.get() / count);
+        }
+
+        public long maxQueueDelayMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxDelayNanos.get());
+        }
+
+        void recordDispatch(long delayNanos) {
+            lastActiveNanos = System.nanoTime();
+            queued.decrementAndGet();
+            dispatched.incrementAndGet();
+            totalDelayNanos.addAndGet(delayNanos);
+            maxDelayNanos.accumulateAndGet(delayNanos, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            return "KeyStats{key=" + key + ", queued=" + queued() + ", dispatched=" + dispatched()
+                + ", avgDelay=" + averageQueueDelayMillis() + "ms, maxDelay=" + maxQueueDelayMillis() + "ms}";
+        }
+    }
+
+    /**
+     * 一个优先级的公平队列，由 Dispatcher 的锁保护
+     */
+    private final class FairQueue<T> extends AbstractQueue<T> {
+        private final Function<T, Request> requestOf;
+        // 有请求的子队列
+        private final Map<String, Flow<T>> flows = new HashMap<>();
+        // 轮转顺序，队首是当前服务的子队列
+        private final ArrayDeque<Flow<T>> active = new ArrayDeque<>();
+        private int size;
+
+        FairQueue(Function<T, Request> requestOf) {
+            this.requestOf = requestOf;
+        }
+
+        @Override
+        public boolean offer(T element) {
+            String key = keyFunction.apply(requestOf.apply(element));
+            Flow<T> flow = flows.get(key);
+            if (flow == null) {
+                flow = new Flow<>(statsFor(key));
+                flows.put(key, flow);
+                active.addLast(flow);
+            }
+            long now = System.nanoTime();
+            flow.entries.addLast(new Entry<>(element, now));
+            flow.stats.queued.incrementAndGet();
+            flow.stats.lastActiveNanos = now;
+            size++;
+            pruneIdleStats(now);
+            return true;
+        }
+
+        @Override
+        public T poll() {
+            Flow<T> flow = active.peekFirst();
+            if (flow == null) {
+                return null;
+            }
+            if (flow.deficit == 0) {
+                flow.deficit = weight(flow.stats.key);
+            }
+            Entry<T> entry = flow.entries.removeFirst();
+            flow.stats.recordDispatch(System.nanoTime() - entry.enqueuedAt);
+            flow.deficit--;
+            size--;
+
+            if (flow.entries.isEmpty()) {
+                // 取空后离开轮转
+                active.removeFirst();
+                flows.remove(flow.stats.key);
+            } else if (flow.deficit == 0) {
+                // 本轮额度用完，移到队尾
+                active.addLast(active.removeFirst());
+            }
+            return entry.element;
+        }
+
+        @Override
+        public T peek() {
+            Flow<T> flow = active.peekFirst();
+            return flow != null ? flow.entries.peekFirst().element : null;
+        }
+
+        /**
+         * 移除被取消的请求，不计入出队统计
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            Flow<T> flow = flows.get(keyFunction.apply(requestOf.apply((T) o)));
+            if (flow == null) {
+                return false;
+            }
+            Iterator<Entry<T>> iterator = flow.entries.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().element.equals(o)) {
+                    iterator.remove();
+                    flow.stats.queued.decrementAndGet();
+                    flow.stats.lastActiveNanos = System.nanoTime();
+                    size--;
+                    if (flow.entries.isEmpty()) {
+                        active.remove(flow);
+                        flows.remove(flow.stats.key);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 只读迭代（用于取消），按轮转顺序
+         */
+        @Override
+        public Iterator<T> iterator() {
+            List<T> snapshot = new ArrayList<>(size);
+            for (Flow<T> flow : active) {
+                for (Entry<T> entry : flow.entries) {
+                    snapshot.add(entry.element);
+                }
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        }
+    }
+
+    /**
+     * 某个键在一个优先级中的子队列
+     */
+    private static final class Flow<T> {
+        final KeyStats stats;
+        final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+        // 本轮剩余可以取出的请求数
+        int deficit;
+
+        Flow(KeyStats stats) {
+            this.stats = stats;
+        }
+    }
+
+    private static final class Entry<T> {
+        final T element;
+        final long enqueuedAt;
+
+        Entry(T element, long enqueuedAt) {
+            this.element = element;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲请求：降低偶尔变慢的副本带来的长尾延迟
+ *
+ * 幂等请求（没有请求体的 GET、HEAD、OPTIONS）发出后，
+ * 如果在对冲延迟内没有响应，就再发一个相同的请求（连接池不会把使用中的连接分给它，
+ * 所以会走另一条连接），谁先成功返回就用谁的响应，取消另一个。
+ *
+ * 对冲延迟可以是固定值，也可以是该主机最近响应时间的百分位数（例如 p95）。
+ * 对冲预算限制额外的负载：每个请求积累 budgetRatio 个额度，每次对冲消耗 1 个，
+ * 例如 0.05 表示对冲请求最多占请求总数的 5%。
+ *
+ * 作为应用拦截器使用，execute() 和 enqueue() 都有效：
+ * <pre>
+ * OkHttpClient client = new OkHttpClient.Builder()
+ *     .addInterceptor(new HedgingInterceptor.Builder().percentileDelay(0.95).budgetRatio(0.05).build())
+ *     .build();
+ * </pre>
+ *
+ * 原请求在当前线程上执行，超过对冲延迟后对冲请求通过 executeAsync() 交给 Dispatcher，
+ * 不额外占用线程；对冲请求先成功时放弃原请求的连接，原请求立即结束。
+ * 外层 Call 的 cancel() 和整体超时会结束原请求，也会取消对冲请求；
+ * 对冲请求是一个新的 Call，会经过所有应用拦截器（不要和 CoalescingInterceptor 一起使用，
+ * 否则对冲请求会被合并到原请求上）
+ */
+public class HedgingInterceptor implements Interceptor {
+
+    private static final Set<String> HEDGEABLE_METHODS =
+        Collections.unmodifiableSet(new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS")));
+
+    // 计算百分位数使用的每个主机最近的样本数
+    private static final int SAMPLE_SIZE = 256;
+
+    private final long fixedDelayMillis;
+    private final double percentile;
+    private final int minSamples;
+    private final double budgetRatio;
+    private final double maxBudget;
+
+    private final Map<String, LatencySamples> latencies = new ConcurrentHashMap<>();
+    // 由自己发出的对冲请求，不再对冲
+    // 对冲请求被取消后仍可能开始执行，所以不主动移除，用弱引用等它被回收
+    private final Set<Request> hedgeRequests =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    // 对冲预算（由 this 的锁保护）
+    private double budget;
+
+    private final AtomicLong hedgeableCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private final AtomicLong budgetExhaustedCount = new AtomicLong();
+
+    private HedgingInterceptor(Builder builder) {
+        this.fixedDelayMillis = builder.fixedDelayMillis;
+        this.percentile = builder.percentile;
+        this.minSamples = builder.minSamples;
+        this.budgetRatio = builder.budgetRatio;
+        this.maxBudget = builder.maxBudget;
+        this.budget = builder.maxBudget;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        // 对冲要跟随原请求的取消和超时，自定义的 Chain 没有 Call 时不对冲
+        RealCall call = chain.call() instanceof RealCall ? (RealCall) chain.call() : null;
+        if (!isHedgeable(request) || hedgeRequests.contains(request) || call == null) {
+            return chain.proceed(request);
+        }
+
+        hedgeableCount.incrementAndGet();
+        deposit();
+        String host = request.host();
+        long delayMillis = hedgeDelayMillis(host);
+
+        // 原请求在当前线程上执行，超过对冲延迟还没有结束时由看门狗发出对冲请求
+        Race race = new Race(chain.client(), call, request);
+        long startNanos = System.nanoTime();
+        Watchdog.Timeout timer = Watchdog.shared().schedule(delayMillis, TimeUnit.MILLISECONDS, race::startHedge);
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            timer.cancel();
+            return recordLatency(host, startNanos, race.primaryFailed(e));
+        } catch (RuntimeException e) {
+            timer.cancel();
+            race.primaryFailed();
+            throw e;
+        }
+        timer.cancel();
+        return recordLatency(host, startNanos, race.primarySucceeded(response));
+    }
+
+    /**
+     * 记录拿到响应（不论谁先返回）的耗时；只记录原请求赢的情况会让百分位数越来越小
+     */
+    private Response recordLatency(String host, long startNanos, Response response) {
+        samples(host).add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        return response;
+    }
+
+    /**
+     * 一个可对冲请求的原请求和对冲请求之间的竞争
+     *
+     * 原请求在调用线程上执行；对冲请求通过 executeAsync() 在 Dispatcher 中执行，
+     * 先成功时放弃原请求的连接（abandonExchange()），让阻塞在读写上的原请求立即失败返回。
+     * 状态由 this 的锁保护，锁内不调用外部代码
+     */
+    private final class Race {
+        private final OkHttpClient client;
+        private final RealCall call;
+        private final Request request;
+
+        private boolean primaryDone;
+        private boolean hedgeWon;
+        private Call hedgeCall;
+        private CompletableFuture<Response> hedge;
+
+        Race(OkHttpClient client, RealCall call, Request request) {
+            this.client = client;
+            this.call = call;
+            this.request = request;
+        }
+
+        /**
+         * 超过对冲延迟，在看门狗线程上执行
+         */
+        void startHedge() {
+            synchronized (this) {
+                if (primaryDone || call.isExchangeStopped() || call.isTimedOut()) {
+                    return;
+                }
+            }
+            if (!withdraw()) {
+                budgetExhaustedCount.incrementAndGet();
+                return;
+            }
+            hedgeCount.incrementAndGet();
+            Request hedgeRequest = request.newBuilder().build();
+            hedgeRequests.add(hedgeRequest);
+            Call newCall = client.newCall(hedgeRequest);
+            CompletableFuture<Response> future = newCall.executeAsync();
+            boolean started;
+            synchronized (this) {
+                started = !primaryDone;
+                if (started) {
+                    hedgeCall = newCall;
+                    hedge = future;
+                }
+            }
+            if (!started) {
+                // 发出的同时原请求已经结束
+                discardHedge(newCall, future);
+                return;
+            }
+            future.whenComplete((response, e) -> hedgeCompleted(e == null));
+        }
+
+        /**
+         * 对冲请求先成功时放弃原请求；失败时原请求继续
+         */
+        private void hedgeCompleted(boolean success) {
+            if (!success) {
+                return;
+            }
+            synchronized (this) {
+                if (primaryDone) {
+                    return;
+                }
+                hedgeWon = true;
+            }
+            call.abandonExchange();
+        }
+
+        /**
+         * 原请求成功：对冲请求已经赢了时用对冲请求的响应，否则丢弃对冲请求
+         */
+        Response primarySucceeded(Response response) throws IOException {
+            boolean won;
+            synchronized (this) {
+                primaryDone = true;
+                won = hedgeWon;
+            }
+            if (won) {
+                closeQuietly(response, null);
+                return hedgeWon(call, hedge.join());
+            }
+            if (hedgeCall != null) {
+                discardHedge(hedgeCall, hedge);
+            }
+            return response;
+        }
+
+        /**
+         * 原请求失败：对冲请求已经赢了（原请求因此失败）或之后成功时用对冲请求的响应，
+         * 外层的 Call 被取消或超时时不再等待；两个都失败时报告原请求的错误
+         */
+        Response primaryFailed(IOException e) throws IOException {
+            boolean won;
+            synchronized (this) {
+                primaryDone = true;
+                won = hedgeWon;
+            }
+            if (won) {
+                return hedgeWon(call, hedge.join());
+            }
+            if (hedgeCall == null) {
+                throw e;
+            }
+            if (call.isCanceled() || call.isTimedOut()) {
+                discardHedge(hedgeCall, hedge);
+                throw e;
+            }
+            try {
+                call.awaitDone(hedge);
+            } catch (IOException waitFailure) {
+                discardHedge(hedgeCall, hedge);
+                throw waitFailure;
+            }
+            if (succeeded(hedge)) {
+                return hedgeWon(call, hedge.join());
+            }
+            throw e;
+        }
+
+        /**
+         * 原请求抛出了非 IOException，丢弃对冲请求
+         */
+        void primaryFailed() {
+            synchronized (this) {
+                primaryDone = true;
+            }
+            if (hedgeCall != null) {
+                discardHedge(hedgeCall, hedge);
+            }
+        }
+    }
+
+    /**
+     * 对冲请求的响应不经过外层 Call 的连接，外层 Call 被取消后不能再返回它
+     */
+    private Response hedgeWon(RealCall call, Response response) throws IOException {
+        if (call.isCanceled()) {
+            closeQuietly(response, null);
+            throw new IOException("Canceled");
+        }
+        hedgeWinCount.incrementAndGet();
+        return response;
+    }
+
+    /**
+     * 对冲请求赢的比例
+     */
+    public double hedgeWinRate() {
+        long hedges = hedgeCount.get();
+        return hedges == 0 ? 0 : (double) hedgeWinCount.get() / hedges;
+    }
+
+    /**
+     * 可以对冲的请求数
+     */
+    public long hedgeableCount() {
+        return hedgeableCount.get();
+    }
+
+    /**
+     * 实际发出的对冲请求数
+     */
+    public long hedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * 对冲请求先返回的次数
+     */
+    public long hedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * 因为预算不足没有对冲的次数
+     */
+    public long budgetExhaustedCount() {
+        return budgetExhaustedCount.get();
+    }
+
+    /**
+     * 主机当前的对冲延迟
+     */
+    public long hedgeDelayMillis(String host) {
+        if (percentile == 0) {
+            return fixedDelayMillis;
+        }
+        LatencySamples samples = latencies.get(host);
+        if (samples == null) {
+            return fixedDelayMillis;
+        }
+        long value = samples.percentile(percentile, minSamples);
+        return value < 0 ? fixedDelayMillis : value;
+    }
+
+    private boolean isHedgeable(Request request) {
+        return HEDGEABLE_METHODS.contains(request.method()) && request.body() == null;
+    }
+
+    private LatencySamples samples(String host) {
+        return latencies.computeIfAbsent(host, key -> new LatencySamples());
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    private static boolean succeeded(CompletableFuture<Response> future) {
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * 丢弃输掉的对冲请求：取消它的 Call，已经拿到或之后拿到的响应直接关闭
+     */
+    private static void discardHedge(Call hedgeCall, CompletableFuture<Response> hedge) {
+        hedgeCall.cancel();
+        hedge.whenComplete(HedgingInterceptor::closeQuietly);
+    }
+
+    private static void closeQuietly(Response response, Throwable e) {
+        if (response != null && response.body() != null) {
+            try {
+                response.body().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 一个主机最近 SAMPLE_SIZE 个成功请求的耗时（环形缓冲区）
+     */
+    private static final class LatencySamples {
+        private final long[] values = new long[SAMPLE_SIZE];
+        private int count;
+        private int next;
+
+        synchronized void add(long millis) {
+            values[next] = millis;
+            next = (next + 1) % values.length;
+            if (count < values.length) {
+                count++;
+            }
+        }
+
+        /**
+         * 样本不足 minSamples 时返回 -1
+         */
+        synchronized long percentile(double p, int minSamples) {
+            if (count < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    public static class Builder {
+        private long fixedDelayMillis = 100;
+        private double percentile;
+        private int minSamples = 20;
+        private double budgetRatio = 0.05;
+        private double maxBudget = 10;
+
+        /**
+         * 固定的对冲延迟，默认 100 毫秒；
+         * 使用百分位数时，样本不足前也使用这个值
+         */
+        public Builder delayMillis(long delayMillis) {
+            if (delayMillis < 0) {
+                throw new IllegalArgumentException("delayMillis < 0");
+            }
+            this.fixedDelayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * 使用主机最近响应时间的百分位数作为对冲延迟，例如 0.95
+         */
+        public Builder percentileDelay(double percentile) {
+            if (percentile <= 0 || percentile >= 1) {
+                throw new IllegalArgumentException("percentile must be in (0, 1): " + percentile);
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * 计算百分位数至少需要的样本数，默认 20
+         */
+        public Builder minSamples(int minSamples) {
+            if (minSamples < 1 || minSamples > SAMPLE_SIZE) {
+                throw new IllegalArgumentException("minSamples must be in [1, " + SAMPLE_SIZE + "]");
+            }
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * 对冲请求最多占请求总数的比例，默认 0.05
+         */
+        public Builder budgetRatio(double budgetRatio) {
+            if (budgetRatio <= 0 || budgetRatio > 1) {
+                throw new IllegalArgumentException("budgetRatio must be in (0, 1]: " + budgetRatio);
+            }
+            this.budgetRatio = budgetRatio;
+            return this;
+        }
+
+        /**
+         * 最多积累的对冲额度（允许的突发对冲数），默认 10
+         */
+        public Builder maxBudget(double maxBudget) {
+            if (maxBudget < 1) {
+                throw new IllegalArgumentException("maxBudget < 1");
+            }
+            this.maxBudget = maxBudget;
+            return this;
+        }
+
+        public HedgingInterceptor build() {
+            return new HedgingInterceptor(this);
+        }
+    }
+}
@@ -44,6 +44,13 @@ public interface Interceptor {
          * 获取 OkHttpClient 实例
          */
         OkHttpClient client();
+
+        /**
+         * 获取正在执行的 Call，自定义的 Chain 实现可能返回 null
+         */
+        default Call call() {
+            return null;
+        }
         
         /**
          * 获取当前重试次数
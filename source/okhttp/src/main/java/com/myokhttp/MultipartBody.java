@@ -0,0 +1,322 @@
+package com.myokhttp;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * multipart/form-data 请求体
+ * 
+ * 格式（RFC 7578）：
+ * --boundary
+ * Content-Disposition: form-data; name="field"
+ * 
+ * value
+ * --boundary
+ * Content-Disposition: form-data; name="file"; filename="a.png"
+ * Content-Type: image/png
+ * 
+ * [文件内容]
+ * --boundary--
+ * 
+ * 每个部分在 writeTo() 时依次流式写出，不会把整个请求体拼成一个大数组；
+ * 所有部分长度已知时 contentLength() 可以提前算出，避免 chunked 编码
+ */
+public final class MultipartBody extends RequestBody {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] DASHDASH = {'-', '-'};
+
+    private final String boundary;
+    private final String contentType;
+    private final List<Part> parts;
+    private final byte[] boundaryBytes;
+
+    // 缓存计算出的长度，-2 表示还未计算
+    private long contentLength = -2;
+
+    private MultipartBody(Builder builder) {
+        this.boundary = builder.boundary;
+        this.contentType = builder.type + "; boundary=" + builder.boundary;
+        this.parts = new ArrayList<>(builder.parts);
+        this.boundaryBytes = builder.boundary.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String boundary() {
+        return boundary;
+    }
+
+    public List<Part> parts() {
+        return new ArrayList<>(parts);
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * 任意一个部分长度未知时返回 -1，整个请求体按 chunked 编码发送
+     */
+    @Override
+    public long contentLength() {
+        long result = contentLength;
+        if (result != -2) {
+            return result;
+        }
+        result = computeLength();
+        contentLength = result;
+        return result;
+    }
+
+    /**
+     * 任意一个部分是一次性的，整个请求体就不能重放
+     */
+    @Override
+    public boolean isOneShot() {
+        for (Part part : parts) {
+            if (part.body.isOneShot()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (Part part : parts) {
+            // --boundary\r\n
+            out.write(DASHDASH);
+            out.write(boundaryBytes);
+            out.write(CRLF);
+
+            // 部分头 + 空行
+            out.write(part.headerBytes);
+
+            // 部分内容
+            // 长度已知时只允许写出部分头中声明的长度（例如文件在构建之后被修改），否则分隔就错了
+            if (part.contentLength != -1) {
+                FixedLengthOutputStream fixed = new FixedLengthOutputStream(out, part.contentLength);
+                part.body.writeTo(fixed);
+                fixed.checkComplete();
+            } else {
+                part.body.writeTo(out);
+            }
+            out.write(CRLF);
+        }
+
+        // --boundary--\r\n
+        out.write(DASHDASH);
+        out.write(boundaryBytes);
+        out.write(DASHDASH);
+        out.write(CRLF);
+        out.flush();
+    }
+
+    private long computeLength() {
+        long length = 0;
+        for (Part part : parts) {
+            long bodyLength = part.contentLength;
+            if (bodyLength == -1) {
+                return -1;
+            }
+            length += DASHDASH.length + boundaryBytes.length + CRLF.length;
+            length += part.headerBytes.length;
+            length += bodyLength;
+            length += CRLF.length;
+        }
+        length += DASHDASH.length + boundaryBytes.length + DASHDASH.length + CRLF.length;
+        return length;
+    }
+
+    /**
+     * multipart 中的一个部分：部分头 + 内容
+     */
+    public static final class Part {
+        private final Map<String, String> headers;
+        private final RequestBody body;
+        // 构建时的内容长度，写入部分头，写出时按它检查
+        private final long contentLength;
+        // 编码好的部分头，包括结尾的空行
+        private final byte[] headerBytes;
+
+        private Part(Map<String, String> headers, RequestBody body) {
+            this.headers = new LinkedHashMap<>(headers);
+            this.body = body;
+            this.contentLength = body.contentLength();
+            this.headerBytes = encodeHeaders(this.headers, body.contentType(), contentLength);
+        }
+
+        public Map<String, String> headers() {
+            return new LinkedHashMap<>(headers);
+        }
+
+        public RequestBody body() {
+            return body;
+        }
+
+        private static byte[] encodeHeaders(Map<String, String> headers, String contentType, long contentLength) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+            }
+            if (contentType != null) {
+                sb.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            if (contentLength != -1) {
+                sb.append("Content-Length: ").append(contentLength).append("\r\n");
+            }
+            sb.append("\r\n");
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 只允许写出固定长度的输出流，超出或不足时抛出异常，而不是发出分隔错误的请求体
+     */
+    private static final class FixedLengthOutputStream extends FilterOutputStream {
+        private long remaining;
+
+        FixedLengthOutputStream(OutputStream out, long length) {
+            super(out);
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new IOException("部分内容超过声明的长度，还可以写 " + remaining + " 字节，实际要写 " + len);
+            }
+            out.write(b, off, len);
+            remaining -= len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // 不关闭连接的输出流
+            flush();
+        }
+
+        void checkComplete() throws IOException {
+            if (remaining != 0) {
+                throw new IOException("部分内容比声明的长度少 " + remaining + " 字节");
+            }
+        }
+    }
+
+    /**
+     * Builder 模式：构建 MultipartBody
+     */
+    public static class Builder {
+        private String boundary;
+        private String type = "multipart/form-data";
+        private final List<Part> parts = new ArrayList<>();
+
+        public Builder() {
+            this(UUID.randomUUID().toString());
+        }
+
+        public Builder(String boundary) {
+            if (boundary == null || boundary.isEmpty()) {
+                throw new IllegalArgumentException("boundary is empty");
+            }
+            this.boundary = boundary;
+        }
+
+        /**
+         * 设置 multipart 子类型，默认 multipart/form-data
+         */
+        public Builder setType(String type) {
+            if (type == null || !type.startsWith("multipart/")) {
+                throw new IllegalArgumentException("multipart != " + type);
+            }
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * 添加一个自定义部分头的部分
+         * Content-Type 和 Content-Length 由 body 决定，不能出现在 headers 中
+         */
+        public Builder addPart(Map<String, String> headers, RequestBody body) {
+            if (body == null) {
+                throw new IllegalArgumentException("body == null");
+            }
+            for (String name : headers.keySet()) {
+                if (name.equalsIgnoreCase("Content-Type") || name.equalsIgnoreCase("Content-Length")) {
+                    throw new IllegalArgumentException("Unexpected header: " + name);
+                }
+            }
+            parts.add(new Part(headers, body));
+            return this;
+        }
+
+        /**
+         * 添加一个普通表单字段
+         */
+        public Builder addFormDataPart(String name, String value) {
+            return addFormDataPart(name, null, RequestBody.create(value, null));
+        }
+
+        /**
+         * 添加一个表单部分，filename 不为 null 时表示文件上传
+         */
+        public Builder addFormDataPart(String name, String filename, RequestBody body) {
+            if (name == null) {
+                throw new IllegalArgumentException("name == null");
+            }
+            StringBuilder disposition = new StringBuilder("form-data; name=");
+            appendQuotedString(disposition, name);
+            if (filename != null) {
+                disposition.append("; filename=");
+                appendQuotedString(disposition, filename);
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("Content-Disposition", disposition.toString());
+            return addPart(headers, body);
+        }
+
+        public MultipartBody build() {
+            if (parts.isEmpty()) {
+                throw new IllegalStateException("Multipart body must have at least one part.");
+            }
+            return new MultipartBody(this);
+        }
+
+        /**
+         * 写入带引号的参数值，转义会破坏头格式的字符
+         */
+        private static void appendQuotedString(StringBuilder sb, String value) {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\n':
+                        sb.append("%0A");
+                        break;
+                    case '\r':
+                        sb.append("%0D");
+                        break;
+                    case '"':
+                        sb.append("%22");
+                        break;
+                    default:
+                        sb.append(c);
+                        break;
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.myokhttp;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -24,10 +25,21 @@ public class OkHttpClient {
     private final int connectTimeout;
     private final int readTimeout;
     private final int writeTimeout;
+    private final int callTimeout;
     
     // 重试设置
     private final boolean followRedirects;
     private final boolean retryOnConnectionFailure;
+    private final RetryPolicy retryPolicy;
+
+    // 域名解析
+    private final Dns dns;
+
+    // 主机有多个地址时并行连接
+    private final boolean fastFallback;
+
+    // 最近连接失败的路由
+    private final RouteDatabase routeDatabase;
 
     private OkHttpClient(Builder builder) {
         this.dispatcher = builder.dispatcher;
@@ -37,8 +49,13 @@ public class OkHttpClient {
         this.connectTimeout = builder.connectTimeout;
         this.readTimeout = builder.readTimeout;
         this.writeTimeout = builder.writeTimeout;
+        this.callTimeout = builder.callTimeout;
         this.followRedirects = builder.followRedirects;
         this.retryOnConnectionFailure = builder.retryOnConnectionFailure;
+        this.retryPolicy = builder.retryPolicy;
+        this.fastFallback = builder.fastFallback;
+        this.dns = builder.dns;
+        this.routeDatabase = builder.routeDatabase;
     }
 
     /**
@@ -48,6 +65,34 @@ public class OkHttpClient {
         return new RealCall(this, request);
     }
 
+    /**
+     * 批量执行请求：按需从迭代器取出请求，最多同时执行 concurrency 个，
+     * 结果按完成顺序返回，失败的请求作为结果返回
+     */
+    public BulkCall executeAll(Iterator<Request> requests, int concurrency) {
+        return executeAll(requests, concurrency, BulkCall.Order.COMPLETION, BulkCall.ErrorMode.COLLECT);
+    }
+
+    /**
+     * 批量执行请求，指定结果顺序和失败时的处理方式
+     */
+    public BulkCall executeAll(Iterator<Request> requests, int concurrency,
+                               BulkCall.Order order, BulkCall.ErrorMode errorMode) {
+        return new BulkCall(this, requests, concurrency, order, errorMode);
+    }
+
+    /**
+     * 创建并连接一个 Server-Sent Events 事件流
+     */
+    public EventSource newEventSource(Request request, EventSource.Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        RealEventSource eventSource = new RealEventSource(this, request, listener);
+        eventSource.connect();
+        return eventSource;
+    }
+
     public Dispatcher dispatcher() {
         return dispatcher;
     }
@@ -76,6 +121,10 @@ public class OkHttpClient {
         return writeTimeout;
     }
 
+    public int callTimeoutMillis() {
+        return callTimeout;
+    }
+
     public boolean followRedirects() {
         return followRedirects;
     }
@@ -84,6 +133,22 @@ public class OkHttpClient {
         return retryOnConnectionFailure;
     }
 
+    public RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    public Dns dns() {
+        return dns;
+    }
+
+    public boolean fastFallback() {
+        return fastFallback;
+    }
+
+    public RouteDatabase routeDatabase() {
+        return routeDatabase;
+    }
+
     /**
      * 创建一个新的 Builder
      */
@@ -96,6 +161,8 @@ public class OkHttpClient {
      */
     public static class Builder {
         private Dispatcher dispatcher;
+        // dispatcher 是 virtualThreads(true) 创建的，virtualThreads(false) 只撤销这种替换
+        private boolean virtualThreadDispatcher;
         private List<Interceptor> interceptors = new ArrayList<>();
         private List<Interceptor> networkInterceptors = new ArrayList<>();
         private ConnectionPool connectionPool;
@@ -104,14 +171,23 @@ public class OkHttpClient {
         private int connectTimeout = 10_000;
         private int readTimeout = 10_000;
         private int writeTimeout = 10_000;
+        // 整体超时，默认不限制
+        private int callTimeout = 0;
         
         // 默认重试设置
         private boolean followRedirects = true;
         private boolean retryOnConnectionFailure = true;
+        private RetryPolicy retryPolicy;
+        private RouteDatabase routeDatabase;
+        private boolean fastFallback = true;
+        private Dns dns;
 
         public Builder() {
             dispatcher = new Dispatcher();
             connectionPool = new ConnectionPool();
+            retryPolicy = new RetryPolicy.Builder().build();
+            routeDatabase = new RouteDatabase();
+            dns = new CachingDns.Builder().build();
         }
 
         private Builder(OkHttpClient client) {
@@ -122,8 +198,13 @@ public class OkHttpClient {
             this.connectTimeout = client.connectTimeout;
             this.readTimeout = client.readTimeout;
             this.writeTimeout = client.writeTimeout;
+            this.callTimeout = client.callTimeout;
             this.followRedirects = client.followRedirects;
             this.retryOnConnectionFailure = client.retryOnConnectionFailure;
+            this.retryPolicy = client.retryPolicy;
+            this.routeDatabase = client.routeDatabase;
+            this.fastFallback = client.fastFallback;
+            this.dns = client.dns;
         }
 
         /**
@@ -174,6 +255,19 @@ public class OkHttpClient {
             return this;
         }
 
+        /**
+         * 整个请求的超时（毫秒），包括连接、重试、重定向、写请求和读响应，0 表示不限制（默认）
+         * 到期时关闭连接，阻塞的读写立即失败，请求以 InterruptedIOException("timeout") 结束。
+         * 异步请求从开始执行时计时，排队时间不算在内；Request.Builder.callTimeout() 可以单独设置
+         */
+        public Builder callTimeout(int timeout) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout < 0");
+            }
+            this.callTimeout = timeout;
+            return this;
+        }
+
         public Builder followRedirects(boolean followRedirects) {
             this.followRedirects = followRedirects;
             return this;
@@ -184,11 +278,63 @@ public class OkHttpClient {
             return this;
         }
 
+        /**
+         * 请求失败后的重试策略，默认 new RetryPolicy.Builder().build()；
+         * retryOnConnectionFailure(false) 时不重试
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new IllegalArgumentException("retryPolicy == null");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * 域名解析，默认是每个客户端独立的 CachingDns；
+         * 使用 Dns.SYSTEM 则每次连接都交给 JVM 解析
+         */
+        public Builder dns(Dns dns) {
+            if (dns == null) {
+                throw new IllegalArgumentException("dns == null");
+            }
+            this.dns = dns;
+            return this;
+        }
+
+        /**
+         * 主机解析出多个地址时是否并行连接（Happy Eyeballs），默认开启：
+         * 一个地址 250 毫秒内没有连上就同时连接下一个，用第一个连上的连接；
+         * 关闭后按顺序逐个连接
+         */
+        public Builder fastFallback(boolean fastFallback) {
+            this.fastFallback = fastFallback;
+            return this;
+        }
+
         public Builder dispatcher(Dispatcher dispatcher) {
             if (dispatcher == null) {
                 throw new IllegalArgumentException("dispatcher == null");
             }
             this.dispatcher = dispatcher;
+            this.virtualThreadDispatcher = false;
+            return this;
+        }
+
+        /**
+         * 是否使用虚拟线程执行异步请求（需要 JDK 21+）
+         * 开启后会替换为新的 Dispatcher，maxRequests 提高到 Dispatcher.VIRTUAL_THREAD_MAX_REQUESTS；
+         * 之前设置的 Dispatcher 会被替换，需要的话在之后重新调整它的限制。
+         * 关闭时只撤销之前 virtualThreads(true) 的替换，通过 dispatcher() 设置的 Dispatcher 保持不变
+         */
+        public Builder virtualThreads(boolean enabled) {
+            if (enabled) {
+                this.dispatcher = Dispatcher.virtualThreads();
+                this.virtualThreadDispatcher = true;
+            } else if (virtualThreadDispatcher) {
+                this.dispatcher = new Dispatcher();
+                this.virtualThreadDispatcher = false;
+            }
             return this;
         }
 
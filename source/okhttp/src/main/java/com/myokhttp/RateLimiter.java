@@ -0,0 +1,288 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 客户端限流：每个主机（或自定义的键）一个令牌桶
+ *
+ * 很多后端按每秒请求数限额，超过就返回 429，重试又会放大负载。
+ * 设置到 Dispatcher 后，请求在提升时需要先拿到令牌：
+ * - 异步请求拿不到令牌时留在 Dispatcher 中排队，不占用线程，令牌补充后自动执行
+ * - 同步请求最多等待 maxSyncWaitMillis，超过则抛出 InterruptedIOException；
+ *   等待受 Call 的 cancel() 和整体超时控制
+ *
+ * 令牌在每次获取时按经过的时间惰性补充，不需要定时线程。
+ * 令牌已经补满并且空闲超过 1 分钟的令牌桶会被移除（和新建的桶没有区别），
+ * 自定义的键函数产生大量不同的键时也不会无限增长
+ *
+ * 用法：
+ * <pre>
+ * client.dispatcher().setRateLimiter(new RateLimiter.Builder()
+ *     .rate(50, 10)                      // 每个主机每秒 50 个，最多突发 10 个
+ *     .rate("api.example.com", 5, 1)     // 单独限制某个主机
+ *     .build());
+ * </pre>
+ */
+public final class RateLimiter {
+
+    // 空闲的令牌桶保留的时间，也是扫描空闲桶的间隔
+    private static final long IDLE_BUCKET_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Function<Request, String> keyFunction;
+    private final double permitsPerSecond;
+    private final int burst;
+    private final Map<String, double[]> rates;
+    private final long maxSyncWaitMillis;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextPruneAt = new AtomicLong(System.nanoTime() + IDLE_BUCKET_NANOS);
+    // 因为没有令牌而等待过的请求数
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    private RateLimiter(Builder builder) {
+        this.keyFunction = builder.keyFunction;
+        this.permitsPerSecond = builder.permitsPerSecond;
+        this.burst = builder.burst;
+        this.rates = new HashMap<>(builder.rates);
+        this.maxSyncWaitMillis = builder.maxSyncWaitMillis;
+    }
+
+    /**
+     * 键当前可用的令牌数（向下取整）
+     */
+    public int availablePermits(String key) {
+        return (int) Math.floor(bucket(key).available(System.nanoTime()));
+    }
+
+    /**
+     * 累计因为没有令牌而等待的请求数
+     */
+    public long throttledCount() {
+        return throttledCount.get();
+    }
+
+    Bucket bucket(Request request) {
+        return bucket(keyFunction.apply(request));
+    }
+
+    private Bucket bucket(String key) {
+        pruneIdleBuckets(System.nanoTime());
+        return buckets.computeIfAbsent(key, k -> {
+            double[] rate = rates.get(k);
+            return rate != null ? new Bucket(rate[0], rate[1]) : new Bucket(permitsPerSecond, burst);
+        });
+    }
+
+    /**
+     * 移除空闲的令牌桶，最多每 IDLE_BUCKET_NANOS 扫描一次
+     */
+    private void pruneIdleBuckets(long now) {
+        long pruneAt = nextPruneAt.get();
+        if (now - pruneAt < 0 || !nextPruneAt.compareAndSet(pruneAt, now + IDLE_BUCKET_NANOS)) {
+            return;
+        }
+        buckets.values().removeIf(bucket -> bucket.isIdle(now, IDLE_BUCKET_NANOS));
+    }
+
+    /**
+     * 缓存的令牌桶数
+     */
+    int bucketCount() {
+        return buckets.size();
+    }
+
+    void recordThrottled() {
+        throttledCount.incrementAndGet();
+    }
+
+    /**
+     * 为同步请求获取令牌：预约一个令牌并等待到它可用，
+     * 需要等待的时间超过 maxSyncWaitMillis 时不预约，直接失败；
+     * 等待期间被取消或到了整体超时的截止时间时退还预约的令牌
+     *
+     * @throws InterruptedIOException 等待时间过长、超时或线程被中断
+     * @throws IOException 等待期间被取消
+     */
+    void acquire(RealCall call) throws IOException {
+        Request request = call.request();
+        Bucket bucket = bucket(request);
+        long waitNanos = bucket.reserve(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(maxSyncWaitMillis));
+        if (waitNanos < 0) {
+            throttledCount.incrementAndGet();
+            throw new InterruptedIOException("rate limit exceeded for " + keyFunction.apply(request));
+        }
+        if (waitNanos == 0) {
+            return;
+        }
+        throttledCount.incrementAndGet();
+        try {
+            call.awaitPermit(waitNanos);
+        } catch (IOException e) {
+            bucket.refund();
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{permitsPerSecond=" + permitsPerSecond + ", burst=" + burst
+            + ", rates=" + rates.keySet() + "}";
+    }
+
+    /**
+     * 令牌桶，令牌数可以是负数（同步请求预约了未来的令牌）
+     */
+    static final class Bucket {
+        private final double permitsPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefillNanos;
+        // 最近一次获取、预约或查询等待时间的时间
+        private long lastUsedNanos;
+
+        Bucket(double permitsPerSecond, double capacity) {
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+            this.lastUsedNanos = lastRefillNanos;
+        }
+
+        private void refill(long now) {
+            long elapsed = now - lastRefillNanos;
+            if (elapsed > 0) {
+                tokens = Math.min(capacity, tokens + elapsed * permitsPerNano);
+                lastRefillNanos = now;
+            }
+        }
+
+        synchronized double available(long now) {
+            refill(now);
+            return tokens;
+        }
+
+        /**
+         * 令牌已经补满并且 idleNanos 内没有使用，和新建的桶没有区别
+         */
+        synchronized boolean isIdle(long now, long idleNanos) {
+            refill(now);
+            return tokens >= capacity && now - lastUsedNanos >= idleNanos;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            refill(now);
+            lastUsedNanos = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        /**
+         * 退还一个令牌（拿到令牌后请求没有执行）
+         */
+        synchronized void refund() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        /**
+         * 距离下一个令牌可用还有多少纳秒，已经可用返回 0
+         */
+        synchronized long nanosUntilPermit(long now) {
+            refill(now);
+            lastUsedNanos = now;
+            if (tokens >= 1) {
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / permitsPerNano);
+        }
+
+        /**
+         * 预约一个令牌，返回需要等待的纳秒数；等待超过 maxWaitNanos 时不预约，返回 -1
+         */
+        synchronized long reserve(long now, long maxWaitNanos) {
+            refill(now);
+            lastUsedNanos = now;
+            long waitNanos = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / permitsPerNano);
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            tokens--;
+            return waitNanos;
+        }
+    }
+
+    public static class Builder {
+        private Function<Request, String> keyFunction = Request::host;
+        private double permitsPerSecond = Double.MAX_VALUE;
+        private int burst = 1;
+        private final Map<String, double[]> rates = new HashMap<>();
+        private long maxSyncWaitMillis = 10_000;
+
+        /**
+         * 计算请求所属令牌桶的键，默认按主机
+         */
+        public Builder keyFunction(Function<Request, String> keyFunction) {
+            if (keyFunction == null) {
+                throw new IllegalArgumentException("keyFunction == null");
+            }
+            this.keyFunction = keyFunction;
+            return this;
+        }
+
+        /**
+         * 默认速率：每个键每秒 permitsPerSecond 个请求，最多连续突发 burst 个
+         * 不设置时默认不限流，只有单独设置了速率的键受限制
+         */
+        public Builder rate(double permitsPerSecond, int burst) {
+            checkRate(permitsPerSecond, burst);
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * 单独设置某个键的速率
+         */
+        public Builder rate(String key, double permitsPerSecond, int burst) {
+            if (key == null) {
+                throw new IllegalArgumentException("key == null");
+            }
+            checkRate(permitsPerSecond, burst);
+            rates.put(key, new double[] {permitsPerSecond, burst});
+            return this;
+        }
+
+        /**
+         * 同步请求等待令牌的最长时间，默认 10 秒
+         */
+        public Builder maxSyncWaitMillis(long maxSyncWaitMillis) {
+            if (maxSyncWaitMillis < 0) {
+                throw new IllegalArgumentException("maxSyncWaitMillis < 0");
+            }
+            this.maxSyncWaitMillis = maxSyncWaitMillis;
+            return this;
+        }
+
+        private static void checkRate(double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0)) {
+                throw new IllegalArgumentException("permitsPerSecond <= 0: " + permitsPerSecond);
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst < 1: " + burst);
+            }
+        }
+
+        public RateLimiter build() {
+            return new RateLimiter(this);
+        }
+    }
+}
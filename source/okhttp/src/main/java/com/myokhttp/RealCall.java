@@ -1,8 +1,17 @@
 package com.myokhttp;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Call 的真实实现
@@ -18,7 +27,36 @@ public class RealCall implements Call {
     
     // 执行状态
     private boolean executed;
-    private boolean canceled;
+    // cancel() 可能在任意线程调用，用 volatile 保证执行请求的线程立即看到
+    private volatile boolean canceled;
+
+    // 占用了名额的自适应限制器，由 Dispatcher 设置和清除
+    private AdaptiveLimiter limiter;
+
+    // 异步执行时提交给 Dispatcher 的任务，取消时用它从等待队列中移除
+    private volatile AsyncCall asyncCall;
+
+    // 按 Retry-After 延迟重试的异步请求重新排队后，从这里继续：
+    // 要重试的请求（可能已经重定向过）、已经失败的次数和上一次的等待时间
+    Request retryRequest;
+    int retryAttempts;
+    long retryDelayMillis;
+
+    // 整体超时的截止时间（System.nanoTime()），延迟重试重新排队后继续使用同一个截止时间
+    private boolean hasDeadline;
+    private long deadlineNanos;
+    private volatile boolean timedOut;
+    // 正在使用的连接，超时或取消时关闭它来中断阻塞的读写
+    private volatile RealConnection connection;
+    // 正在建立的连接（ConnectionRacer 或单个 RealConnection），超时或取消时关闭它来中断连接
+    private volatile Closeable connecting;
+    // 网络请求被应用拦截器放弃（对冲请求先返回），见 abandonExchange()
+    private volatile boolean exchangeAbandoned;
+
+    // awaitRetry() 和 awaitDone() 在这里等待，取消、放弃和 future 完成时唤醒；
+    // 不用 synchronized + wait()，虚拟线程等待时不会占住载体线程
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition stateChanged = waitLock.newCondition();
 
     public RealCall(OkHttpClient client, Request request) {
         this.client = client;
@@ -44,6 +82,8 @@ public class RealCall implements Call {
         }
 
         try {
+            // 整体超时包括在 Dispatcher 中等待限流令牌的时间
+            startDeadline();
             // 通知 Dispatcher 开始执行同步请求
             client.dispatcher().executed(this);
             
@@ -69,12 +109,326 @@ public class RealCall implements Call {
         }
 
         // 将异步请求提交给 Dispatcher
-        client.dispatcher().enqueue(new AsyncCall(callback));
+        AsyncCall call = new AsyncCall(callback);
+        asyncCall = call;
+        client.dispatcher().enqueue(call);
     }
 
+    @Override
+    public CompletableFuture<Response> executeAsync() {
+        return executeAsync(null);
+    }
+
+    @Override
+    public CompletableFuture<Response> executeAsync(final Executor executor) {
+        final CallFuture future = new CallFuture(this);
+        enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                complete(executor, () -> future.completeExceptionally(e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                complete(executor, () -> {
+                    if (!future.complete(response)) {
+                        // future 已经被取消，没有人会读取响应体
+                        closeQuietly(response);
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    private static void complete(Executor executor, Runnable completion) {
+        if (executor == null) {
+            completion.run();
+        } else {
+            executor.execute(completion);
+        }
+    }
+
+    private static void closeQuietly(Response response) {
+        if (response.body() != null) {
+            try {
+                response.body().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 取消请求
+     * 正在读写的连接和正在建立的连接会被关闭，阻塞的线程立即抛出异常；
+     * 正在等待重试的线程被唤醒；还在排队的请求直接移除
+     */
     @Override
     public void cancel() {
         canceled = true;
+        signalWaiters();
+        closeQuietly(connection);
+        closeQuietly(connecting);
+        AsyncCall call = asyncCall;
+        if (call != null) {
+            // 还在排队的请求立即移除并以失败结束，不再占用队列
+            client.dispatcher().cancelQueued(call);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 距离截止时间还有多少纳秒，没有整体超时时为 Long.MAX_VALUE
+     */
+    long remainingNanos() {
+        return hasDeadline ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * 放弃在其他线程上执行的网络请求：关闭它的连接，之后不再建立连接、重试或重定向
+     * 和 cancel() 不同，Call 本身没有取消，应用拦截器可以返回从其他 Call 拿到的响应
+     */
+    void abandonExchange() {
+        exchangeAbandoned = true;
+        signalWaiters();
+        closeQuietly(connection);
+        closeQuietly(connecting);
+    }
+
+    /**
+     * 唤醒 awaitRetry() 和 awaitDone() 中等待的线程
+     */
+    private void signalWaiters() {
+        waitLock.lock();
+        try {
+            stateChanged.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * 网络请求是否已经被 cancel() 或 abandonExchange() 停止，这时的连接错误是连接被主动关闭造成的
+     */
+    boolean isExchangeStopped() {
+        return canceled || exchangeAbandoned;
+    }
+
+    /**
+     * ConnectInterceptor 开始建立连接前调用，已经取消时立即关闭
+     */
+    void connectStarted(Closeable connecting) {
+        this.connecting = connecting;
+        if (isExchangeStopped()) {
+            closeQuietly(connecting);
+        }
+    }
+
+    /**
+     * 连接建立完成（成功或失败）后调用
+     */
+    void connectFinished() {
+        this.connecting = null;
+    }
+
+    /**
+     * ConnectInterceptor 拿到连接后调用，已经取消时立即关闭
+     * 先写入再检查标志，和 cancel() 的先写标志再读连接配合，两边至少有一个会关闭连接
+     */
+    void connectionAcquired(RealConnection connection) {
+        this.connection = connection;
+        if (isExchangeStopped()) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * 连接用完（放回连接池或关闭）前调用
+     */
+    void connectionReleased(RealConnection connection) {
+        if (this.connection == connection) {
+            this.connection = null;
+        }
+    }
+
+    AdaptiveLimiter limiter() {
+        return limiter;
+    }
+
+    void setLimiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * 一次网络尝试（ConnectInterceptor 建立连接到收到响应头）结束，
+     * 把耗时和是否失败（IOException、429、503）提交给自适应限制器；
+     * 被取消或放弃的尝试说明不了后端的状态，不提交
+     */
+    void attemptFinished(long rttNanos, boolean dropped) {
+        AdaptiveLimiter limiter = this.limiter;
+        if (limiter != null && !isExchangeStopped()) {
+            limiter.sample(originalRequest.host(), rttNanos, dropped);
+        }
+    }
+
+    /**
+     * 开始计算整体超时的截止时间；已经开始时不变（延迟重试重新排队后继续使用同一个截止时间）
+     */
+    private void startDeadline() {
+        if (hasDeadline) {
+            return;
+        }
+        long timeoutMillis = originalRequest.callTimeoutMillis() >= 0
+            ? originalRequest.callTimeoutMillis()
+            : client.callTimeoutMillis();
+        if (timeoutMillis == 0) {
+            return;
+        }
+        hasDeadline = true;
+        deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * 开始计时；已经过了截止时间时直接失败
+     */
+    private Watchdog.Timeout enterTimeout() throws IOException {
+        startDeadline();
+        if (!hasDeadline) {
+            return null;
+        }
+        long remaining = remainingNanos();
+        if (remaining <= 0) {
+            timedOut = true;
+            throw new InterruptedIOException("timeout");
+        }
+        return Watchdog.shared().schedule(remaining, TimeUnit.NANOSECONDS, this::timeoutExpired);
+    }
+
+    /**
+     * 到了截止时间，在看门狗线程上执行
+     */
+    private void timeoutExpired() {
+        timedOut = true;
+        closeQuietly(connection);
+        closeQuietly(connecting);
+    }
+
+    /**
+     * 重试前等待 millis 毫秒，等待期间被取消时立即结束
+     */
+    void awaitRetry(long millis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        waitLock.lock();
+        try {
+            while (!isExchangeStopped()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                stateChanged.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("重试等待被中断");
+        } finally {
+            waitLock.unlock();
+        }
+        throw new IOException("Canceled");
+    }
+
+    /**
+     * 同步请求等待 nanos 纳秒（限流令牌可用），和 awaitDone() 一样受取消和整体超时控制
+     */
+    void awaitPermit(long nanos) throws IOException {
+        long deadline = System.nanoTime() + nanos;
+        waitLock.lock();
+        try {
+            while (true) {
+                if (canceled) {
+                    throw new IOException("Canceled");
+                }
+                long remaining = remainingNanos();
+                if (remaining <= 0) {
+                    timedOut = true;
+                    throw new InterruptedIOException("timeout");
+                }
+                long waitNanos = deadline - System.nanoTime();
+                if (waitNanos <= 0) {
+                    return;
+                }
+                stateChanged.awaitNanos(Math.min(remaining, waitNanos));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * 等待 future 完成，应用拦截器等待其他请求的结果时使用（合并、对冲）
+     * 等待期间被取消抛出 IOException("Canceled")，到了整体超时的截止时间抛出 InterruptedIOException("timeout")
+     */
+    void awaitDone(CompletableFuture<?> future) throws IOException {
+        awaitDone(future, Long.MAX_VALUE);
+    }
+
+    /**
+     * 同 awaitDone(future)，最多等待 timeoutNanos，返回 future 是否已经完成
+     */
+    boolean awaitDone(CompletableFuture<?> future, long timeoutNanos) throws IOException {
+        long start = System.nanoTime();
+        if (!future.isDone()) {
+            // 和 cancel() 一样唤醒等待的线程
+            future.whenComplete((result, e) -> signalWaiters());
+        }
+        waitLock.lock();
+        try {
+            while (!future.isDone()) {
+                if (canceled) {
+                    throw new IOException("Canceled");
+                }
+                long remaining = remainingNanos();
+                if (remaining <= 0) {
+                    timedOut = true;
+                    throw new InterruptedIOException("timeout");
+                }
+                long waitNanos = timeoutNanos - (System.nanoTime() - start);
+                if (waitNanos <= 0) {
+                    return false;
+                }
+                stateChanged.awaitNanos(Math.min(remaining, waitNanos));
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * 是否因为整体超时结束
+     */
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * 是否通过 enqueue() 异步执行
+     */
+    boolean isAsync() {
+        return asyncCall != null;
     }
 
     @Override
@@ -129,18 +483,42 @@ public class RealCall implements Call {
         // 7. 添加真实的服务器请求拦截器
         interceptors.add(new CallServerInterceptor());
 
-        // 创建拦截器链并开始执行
+        // 创建拦截器链并开始执行；延迟重试的请求从要重试的请求继续
+        Request request = retryRequest != null ? retryRequest : originalRequest;
         Interceptor.Chain chain = new RealInterceptorChain(
             interceptors,
             0,
-            originalRequest,
+            request,
             client,
+            this,
             client.connectTimeoutMillis(),
             client.readTimeoutMillis(),
             client.writeTimeoutMillis()
         );
 
-        return chain.proceed(originalRequest);
+        if (canceled) {
+            throw new IOException("Canceled");
+        }
+        Watchdog.Timeout timeout = enterTimeout();
+        try {
+            return chain.proceed(request);
+        } catch (IOException e) {
+            if (canceled && !(e instanceof RetryDeferredException)) {
+                // 连接被 cancel() 关闭，报告为取消而不是连接错误
+                throw new IOException("Canceled", e);
+            }
+            if (timedOut && !(e instanceof RetryDeferredException)) {
+                // 连接被看门狗关闭，报告为超时而不是连接错误
+                InterruptedIOException timeoutException = new InterruptedIOException("timeout");
+                timeoutException.initCause(e);
+                throw timeoutException;
+            }
+            throw e;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
     }
 
     /**
@@ -149,26 +527,75 @@ public class RealCall implements Call {
      */
     class AsyncCall implements Runnable {
         private final Callback callback;
+        private final String host;
 
         AsyncCall(Callback callback) {
             this.callback = callback;
+            this.host = originalRequest.host();
+        }
+
+        /**
+         * 请求的主机名，Dispatcher 用它做每个主机的并发限制
+         */
+        String host() {
+            return host;
+        }
+
+        /**
+         * 请求的优先级，决定在 Dispatcher 中的排队顺序
+         */
+        Request.Priority priority() {
+            return originalRequest.priority();
+        }
+
+        /**
+         * 在排队时被取消，请求不会再执行
+         */
+        void canceledWhileQueued() {
+            callback.onFailure(RealCall.this, new IOException("Canceled"));
+        }
+
+        /**
+         * 提交到线程池执行
+         * 线程池拒绝（例如已经 shutdown）时直接以失败结束，释放 Dispatcher 中的名额
+         */
+        void executeOn(ExecutorService executorService) {
+            boolean success = false;
+            try {
+                executorService.execute(this);
+                success = true;
+            } catch (RejectedExecutionException e) {
+                InterruptedIOException ioException = new InterruptedIOException("executor rejected");
+                ioException.initCause(e);
+                callback.onFailure(RealCall.this, ioException);
+            } finally {
+                if (!success) {
+                    client.dispatcher().finished(this);
+                }
+            }
         }
 
         @Override
         public void run() {
             boolean signalledCallback = false;
+            long deferredMillis = -1;
             try {
                 // 执行请求
                 Response response = getResponseWithInterceptorChain();
                 
                 // 检查是否已取消
                 if (canceled) {
+                    // 没有人会读取响应体，关闭它归还连接
+                    closeQuietly(response);
                     signalledCallback = true;
                     callback.onFailure(RealCall.this, new IOException("Canceled"));
                 } else {
                     signalledCallback = true;
                     callback.onResponse(RealCall.this, response);
                 }
+            } catch (RetryDeferredException e) {
+                // 按 Retry-After 延迟重试，先释放名额
+                deferredMillis = e.delayMillis();
             } catch (IOException e) {
                 if (!signalledCallback) {
                     callback.onFailure(RealCall.this, e);
@@ -177,11 +604,34 @@ public class RealCall implements Call {
                 // 通知 Dispatcher 异步请求完成
                 client.dispatcher().finished(this);
             }
+            if (deferredMillis >= 0) {
+                client.dispatcher().enqueueLater(this, deferredMillis);
+            }
         }
 
         public RealCall get() {
             return RealCall.this;
         }
     }
-}
 
+    /**
+     * executeAsync() 返回的 future，取消时同时取消请求
+     * 注意 thenApply() 等派生出的 future 被取消时不会影响请求
+     */
+    private static final class CallFuture extends CompletableFuture<Response> {
+        private final Call call;
+
+        CallFuture(Call call) {
+            this.call = call;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean canceled = super.cancel(mayInterruptIfRunning);
+            if (canceled) {
+                call.cancel();
+            }
+            return canceled;
+        }
+    }
+}
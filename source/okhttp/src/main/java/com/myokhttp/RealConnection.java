@@ -2,6 +2,7 @@ package com.myokhttp;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketException;
 
 /**
  * 真实的 HTTP 连接
@@ -16,7 +17,10 @@ public class RealConnection implements Closeable {
     
     private final String host;
     private final int port;
-    private Socket socket;
+    // 连接的具体地址，为 null 时连接时再解析主机名
+    private final Route route;
+    // 可能被其他线程关闭（例如并行连接中输掉的连接），用 volatile 保证可见
+    private volatile Socket socket;
     
     private InputStream inputStream;
     private OutputStream outputStream;
@@ -27,11 +31,28 @@ public class RealConnection implements Closeable {
     // 空闲开始时间（纳秒）
     private long idleAtNanos;
     
-    private boolean closed = false;
+    private volatile boolean closed = false;
+
+    // 连接不能再承载新的请求（例如响应体读到流结束或被流式读取）
+    private boolean noNewExchanges = false;
+
+    // 响应体还在从连接上流式读取，连接用完后的处理（放回连接池）推迟到响应体结束
+    private boolean bodyOpen;
+    private Runnable afterBody;
 
     public RealConnection(String host, int port) {
         this.host = host;
         this.port = port;
+        this.route = null;
+    }
+
+    /**
+     * 连接到路由的具体地址
+     */
+    public RealConnection(Route route) {
+        this.host = route.host();
+        this.port = route.port();
+        this.route = route;
     }
 
     /**
@@ -43,15 +64,24 @@ public class RealConnection implements Closeable {
         }
 
         // 创建 Socket 并连接
-        socket = new Socket();
+        // 连接前已经被 close() 时不再连接；连接中被 close() 时 connect() 抛出 SocketException
+        Socket socket = new Socket();
+        synchronized (this) {
+            if (closed) {
+                throw new SocketException("连接已关闭");
+            }
+            this.socket = socket;
+        }
         socket.setSoTimeout(readTimeout);
-        socket.connect(new java.net.InetSocketAddress(host, port), connectTimeout);
+        socket.connect(route != null ? route.socketAddress() : new java.net.InetSocketAddress(host, port),
+            connectTimeout);
 
         // 获取输入输出流
-        inputStream = socket.getInputStream();
+        // 输入流加缓冲：响应头按行读取时不会多读走响应体的数据
+        inputStream = new BufferedInputStream(socket.getInputStream(), 8192);
         outputStream = socket.getOutputStream();
 
-        System.out.println("已建立连接: " + host + ":" + port);
+        System.out.println("已建立连接: " + (route != null ? route : host + ":" + port));
     }
 
     /**
@@ -92,6 +122,54 @@ public class RealConnection implements Closeable {
         return referenceCount > 0;
     }
 
+    /**
+     * 标记连接不能再复用
+     */
+    public void noNewExchanges() {
+        noNewExchanges = true;
+    }
+
+    /**
+     * 开始流式读取响应体（见 CallServerInterceptor.StreamingInputStream）
+     */
+    synchronized void bodyOpened() {
+        bodyOpen = true;
+    }
+
+    /**
+     * 流式响应体读完或被关闭，执行推迟的处理
+     */
+    void bodyClosed() {
+        Runnable action;
+        synchronized (this) {
+            bodyOpen = false;
+            action = afterBody;
+            afterBody = null;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * 响应体还在读取时把 action 推迟到它结束后执行，返回是否推迟了；
+     * 没有推迟时由调用方立即执行
+     */
+    synchronized boolean runAfterBody(Runnable action) {
+        if (!bodyOpen) {
+            return false;
+        }
+        afterBody = action;
+        return true;
+    }
+
+    /**
+     * 连接是否可以放回连接池复用
+     */
+    public boolean isReusable() {
+        return !noNewExchanges && !isClosed();
+    }
+
     /**
      * 获取空闲开始时间
      */
@@ -114,17 +192,27 @@ public class RealConnection implements Closeable {
         return port;
     }
 
+    /**
+     * 连接使用的路由，用主机名创建时为 null
+     */
+    public Route route() {
+        return route;
+    }
+
     /**
      * 关闭连接
      */
     @Override
     public void close() throws IOException {
-        if (closed) {
-            return;
+        Socket socket;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            socket = this.socket;
         }
-        
-        closed = true;
-        
+
         if (socket != null) {
             socket.close();
         }
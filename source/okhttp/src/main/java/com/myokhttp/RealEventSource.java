@@ -0,0 +1,222 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EventSource 的真实实现
+ * 
+ * 工作流程：
+ * 1. 通过 Call.enqueue() 发起请求（请求头带上 Accept: text/event-stream）
+ * 2. 在回调线程中用 ServerSentEventReader 增量解析流式响应体，逐个分发事件
+ * 3. 流结束或读取失败后，等待退避时间，带上 Last-Event-ID 重新连接；
+ *    连续 MAX_CONNECT_FAILURES 次连接失败后放弃，调用 Listener.onFailure()
+ * 
+ * 注意：事件流连接期间会一直占用 Dispatcher 的一个异步请求名额
+ */
+public class RealEventSource implements EventSource, Call.Callback, ServerSentEventReader.Callback {
+
+    // 最大重连间隔
+    private static final long MAX_RETRY_MILLIS = 60_000;
+    // 连续连接失败这么多次后放弃，通过 onFailure() 通知
+    private static final int MAX_CONNECT_FAILURES = 10;
+
+    // 所有事件流共享的重连定时器，等待期间不占用 Dispatcher 线程
+    private static ScheduledExecutorService reconnectScheduler;
+
+    private final OkHttpClient client;
+    private final Request request;
+    private final Listener listener;
+
+    // 重连间隔，可以被服务器的 retry 字段修改
+    private volatile long retryMillis = 3000;
+    private volatile String lastEventId;
+    // 连续重连失败次数，用于指数退避
+    private int failures;
+
+    private volatile boolean canceled;
+    private Call call;
+    private ResponseBody streamingBody;
+    private ScheduledFuture<?> pendingReconnect;
+
+    public RealEventSource(OkHttpClient client, Request request, Listener listener) {
+        this.client = client;
+        this.request = request;
+        this.listener = listener;
+    }
+
+    @Override
+    public Request request() {
+        return request;
+    }
+
+    /**
+     * 开始连接
+     */
+    public void connect() {
+        Request.Builder builder = request.newBuilder();
+        if (request.header("Accept") == null) {
+            builder.header("Accept", "text/event-stream");
+        }
+        String id = lastEventId;
+        if (id != null) {
+            builder.header("Last-Event-ID", id);
+        }
+
+        Call newCall = client.newCall(builder.build());
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            call = newCall;
+        }
+        newCall.enqueue(this);
+    }
+
+    @Override
+    public void cancel() {
+        Call currentCall;
+        ResponseBody body;
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            currentCall = call;
+            body = streamingBody;
+            if (pendingReconnect != null) {
+                pendingReconnect.cancel(false);
+            }
+        }
+        if (currentCall != null) {
+            currentCall.cancel();
+        }
+        // 关闭响应体使阻塞中的读取立即返回
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        if (canceled) {
+            listener.onClosed(this);
+            return;
+        }
+        boolean giveUp;
+        synchronized (this) {
+            giveUp = !canceled && failures >= MAX_CONNECT_FAILURES;
+            if (giveUp) {
+                canceled = true;
+            }
+        }
+        if (giveUp) {
+            listener.onFailure(this, e, null);
+            return;
+        }
+        scheduleReconnect();
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) throws IOException {
+        ResponseBody body = response.body();
+        try {
+            if (response.code() == 204) {
+                // 服务器要求停止重连
+                canceled = true;
+                listener.onClosed(this);
+                return;
+            }
+            if (!response.isSuccessful()) {
+                canceled = true;
+                listener.onFailure(this, new IOException("意外的状态码: " + response.code()), response);
+                return;
+            }
+            String contentType = body != null ? body.contentType() : null;
+            if (contentType == null
+                    || !contentType.regionMatches(true, 0, "text/event-stream", 0, "text/event-stream".length())) {
+                canceled = true;
+                listener.onFailure(this, new IOException("无效的 Content-Type: " + contentType), response);
+                return;
+            }
+
+            boolean open;
+            synchronized (this) {
+                open = !canceled;
+                if (open) {
+                    streamingBody = body;
+                    failures = 0;
+                }
+            }
+            if (!open) {
+                listener.onClosed(this);
+                return;
+            }
+            listener.onOpen(this, response);
+
+            // Last-Event-ID 跨重连保持，直到服务器发送新的 id
+            ServerSentEventReader reader = new ServerSentEventReader(body.byteStream(), lastEventId, this);
+            try {
+                while (!canceled && reader.processNextEvent()) {
+                    // 每次处理一个事件
+                }
+            } catch (IOException e) {
+                // 读取失败，按断线处理
+            }
+        } finally {
+            synchronized (this) {
+                streamingBody = null;
+            }
+            if (body != null) {
+                body.close();
+            }
+        }
+
+        if (canceled) {
+            listener.onClosed(this);
+        } else {
+            scheduleReconnect();
+        }
+    }
+
+    @Override
+    public void onEvent(String id, String type, String data) {
+        lastEventId = id;
+        listener.onEvent(this, id, type, data);
+    }
+
+    @Override
+    public void onRetryChange(long timeMillis) {
+        retryMillis = timeMillis;
+    }
+
+    /**
+     * 按指数退避等待后重新连接：retry, 2*retry, 4*retry...，最多 MAX_RETRY_MILLIS
+     */
+    private synchronized void scheduleReconnect() {
+        if (canceled) {
+            return;
+        }
+        long delay = Math.min(retryMillis << Math.min(failures, 16), MAX_RETRY_MILLIS);
+        failures++;
+        pendingReconnect = scheduler().schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (reconnectScheduler == null) {
+            reconnectScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "OkHttp EventSource Reconnect");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return reconnectScheduler;
+    }
+}
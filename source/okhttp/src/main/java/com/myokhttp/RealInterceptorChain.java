@@ -17,9 +17,12 @@ public class RealInterceptorChain implements Interceptor.Chain {
     private final int index;
     private final Request request;
     private final OkHttpClient client;
+    private final Call call;
     private final int connectTimeout;
     private final int readTimeout;
     private final int writeTimeout;
+    // 由 ConnectInterceptor 建立的连接，之前的拦截器中为 null
+    private final RealConnection connection;
     
     // 用于防止拦截器多次调用 proceed()
     private int calls;
@@ -32,14 +35,46 @@ public class RealInterceptorChain implements Interceptor.Chain {
             int connectTimeout,
             int readTimeout,
             int writeTimeout
+    ) {
+        this(interceptors, index, request, client, null, connectTimeout, readTimeout, writeTimeout);
+    }
+
+    /**
+     * call 是执行这条链的请求，拦截器通过 Chain.call() 获取
+     */
+    public RealInterceptorChain(
+            List<Interceptor> interceptors,
+            int index,
+            Request request,
+            OkHttpClient client,
+            Call call,
+            int connectTimeout,
+            int readTimeout,
+            int writeTimeout
+    ) {
+        this(interceptors, index, request, client, call, connectTimeout, readTimeout, writeTimeout, null);
+    }
+
+    RealInterceptorChain(
+            List<Interceptor> interceptors,
+            int index,
+            Request request,
+            OkHttpClient client,
+            Call call,
+            int connectTimeout,
+            int readTimeout,
+            int writeTimeout,
+            RealConnection connection
     ) {
         this.interceptors = interceptors;
         this.index = index;
         this.request = request;
         this.client = client;
+        this.call = call;
         this.connectTimeout = connectTimeout;
         this.readTimeout = readTimeout;
         this.writeTimeout = writeTimeout;
+        this.connection = connection;
     }
 
     @Override
@@ -47,8 +82,23 @@ public class RealInterceptorChain implements Interceptor.Chain {
         return request;
     }
 
+    /**
+     * 当前链上的连接，ConnectInterceptor 之前为 null
+     */
+    public RealConnection connection() {
+        return connection;
+    }
+
     @Override
     public Response proceed(Request request) throws IOException {
+        return proceed(request, connection);
+    }
+
+    /**
+     * 携带连接继续执行下一个拦截器
+     * ConnectInterceptor 通过它把连接传给后面的拦截器
+     */
+    Response proceed(Request request, RealConnection connection) throws IOException {
         // 检查是否超出拦截器列表范围
         if (index >= interceptors.size()) {
             throw new AssertionError("拦截器列表已执行完毕");
@@ -56,8 +106,9 @@ public class RealInterceptorChain implements Interceptor.Chain {
 
         calls++;
 
-        // 防止拦截器多次调用 proceed()
-        if (calls > 1) {
+        // 网络拦截器（已经拿到连接）必须只调用一次 proceed()；
+        // 应用拦截器（例如重试）可以多次调用，每次都会重新走后面的拦截器
+        if (connection != null && calls > 1) {
             throw new IllegalStateException(
                 "拦截器 " + interceptors.get(index - 1) + " 必须只调用一次 chain.proceed()"
             );
@@ -69,9 +120,11 @@ public class RealInterceptorChain implements Interceptor.Chain {
             index + 1,
             request,
             client,
+            call,
             connectTimeout,
             readTimeout,
-            writeTimeout
+            writeTimeout,
+            connection
         );
 
         // 获取当前拦截器
@@ -96,6 +149,11 @@ public class RealInterceptorChain implements Interceptor.Chain {
         return client;
     }
 
+    @Override
+    public Call call() {
+        return call;
+    }
+
     @Override
     public int connectTimeoutMillis() {
         return connectTimeout;
@@ -1,7 +1,9 @@
 package com.myokhttp;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * HTTP 请求对象
@@ -12,12 +14,18 @@ public class Request {
     private final String method;
     private final Map<String, String> headers;
     private final RequestBody body;
+    private final Priority priority;
+    private final String tenant;
+    private final long callTimeoutMillis;
 
     private Request(Builder builder) {
         this.url = builder.url;
         this.method = builder.method;
         this.headers = new HashMap<>(builder.headers);
         this.body = builder.body;
+        this.priority = builder.priority;
+        this.tenant = builder.tenant;
+        this.callTimeoutMillis = builder.callTimeoutMillis;
     }
 
     public String url() {
@@ -40,6 +48,47 @@ public class Request {
         return body;
     }
 
+    /**
+     * 异步请求在 Dispatcher 中排队时的优先级
+     */
+    public Priority priority() {
+        return priority;
+    }
+
+    /**
+     * 租户标记，公平调度按它区分不同的调用方，未设置时为 null
+     */
+    public String tenant() {
+        return tenant;
+    }
+
+    /**
+     * 这个请求的整体超时（毫秒），0 表示不限制，-1 表示使用 OkHttpClient 的 callTimeout
+     */
+    public long callTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    /**
+     * 从 URL 中提取主机名（不含端口），用于按主机统计并发数
+     */
+    public String host() {
+        String rest = url;
+        int schemeEnd = rest.indexOf("://");
+        if (schemeEnd != -1) {
+            rest = rest.substring(schemeEnd + 3);
+        }
+        int end = rest.length();
+        for (int i = 0; i < rest.length(); i++) {
+            char c = rest.charAt(i);
+            if (c == '/' || c == '?' || c == '#' || c == ':') {
+                end = i;
+                break;
+            }
+        }
+        return rest.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
     public Builder newBuilder() {
         return new Builder(this);
     }
@@ -57,6 +106,9 @@ public class Request {
         private String method = "GET";
         private Map<String, String> headers = new HashMap<>();
         private RequestBody body;
+        private Priority priority = Priority.NORMAL;
+        private String tenant;
+        private long callTimeoutMillis = -1;
 
         public Builder() {}
 
@@ -65,6 +117,9 @@ public class Request {
             this.method = request.method;
             this.headers = new HashMap<>(request.headers);
             this.body = request.body;
+            this.priority = request.priority;
+            this.tenant = request.tenant;
+            this.callTimeoutMillis = request.callTimeoutMillis;
         }
 
         public Builder url(String url) {
@@ -117,6 +172,38 @@ public class Request {
             return this;
         }
 
+        /**
+         * 设置优先级，默认 NORMAL
+         * 例如用户可见的请求用 HIGH，批量任务用 LOW
+         */
+        public Builder priority(Priority priority) {
+            if (priority == null) {
+                throw new IllegalArgumentException("priority == null");
+            }
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * 设置租户标记
+         * Dispatcher 使用 FairQueuing.byTenant() 时，同一租户的请求共享一份公平份额
+         */
+        public Builder tenant(String tenant) {
+            this.tenant = tenant;
+            return this;
+        }
+
+        /**
+         * 设置这个请求的整体超时，覆盖 OkHttpClient 的 callTimeout；0 表示不限制
+         */
+        public Builder callTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout < 0");
+            }
+            this.callTimeoutMillis = timeout == 0 ? 0 : Math.max(1, unit.toMillis(timeout));
+            return this;
+        }
+
         public Request build() {
             if (url == null) {
                 throw new IllegalStateException("url == null");
@@ -124,5 +211,14 @@ public class Request {
             return new Request(this);
         }
     }
-}
 
+    /**
+     * 请求优先级
+     * 数值越小越优先，ordinal() 即 Dispatcher 中的队列下标
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+}
@@ -1,9 +1,26 @@
 package com.myokhttp;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 
 /**
  * 请求体
@@ -28,10 +45,56 @@ public abstract class RequestBody {
      */
     public abstract void writeTo(OutputStream out) throws IOException;
 
+    /**
+     * 将内容写入输出流，stopped 返回 true 后（请求被取消、超时或连接被关闭）尽快放弃
+     * 
+     * 阻塞在 Socket 写操作上的请求体会因为连接被关闭而失败，默认直接调用 writeTo(out)；
+     * 等待其他来源数据的请求体（见 fromPublisher）需要自己检查 stopped
+     */
+    void writeTo(OutputStream out, BooleanSupplier stopped) throws IOException {
+        writeTo(out);
+    }
+
+    /**
+     * 是否只能写出一次
+     * 
+     * 重试和重定向会再次调用 writeTo()，
+     * 基于流的请求体数据读完就没有了，无法重放，需要返回 true，
+     * RetryAndFollowUpInterceptor 据此决定能否重新发送请求
+     */
+    public boolean isOneShot() {
+        return false;
+    }
+
     /**
      * 创建一个文本类型的 RequestBody
+     * 
+     * 创建时只编码一次并缓存字节，contentLength() 和多次 writeTo() 都复用同一份数据，
+     * 字符集取自 mediaType 中的 charset 参数，默认 UTF-8
      */
     public static RequestBody create(String content, String mediaType) {
+        Charset charset = ResponseBody.charset(mediaType, StandardCharsets.UTF_8);
+        return create(content.getBytes(charset), mediaType);
+    }
+
+    /**
+     * 创建一个 JSON 类型的 RequestBody
+     */
+    public static RequestBody createJson(String json) {
+        return create(json, "application/json; charset=utf-8");
+    }
+
+    /**
+     * 创建一个表单类型的 RequestBody
+     */
+    public static RequestBody createForm(String formData) {
+        return create(formData, "application/x-www-form-urlencoded");
+    }
+
+    /**
+     * 创建一个字节数组类型的 RequestBody
+     */
+    public static RequestBody create(byte[] bytes, String mediaType) {
         return new RequestBody() {
             @Override
             public String contentType() {
@@ -40,12 +103,11 @@ public abstract class RequestBody {
 
             @Override
             public long contentLength() {
-                return content.getBytes(StandardCharsets.UTF_8).length;
+                return bytes.length;
             }
 
             @Override
             public void writeTo(OutputStream out) throws IOException {
-                byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
                 out.write(bytes);
                 out.flush();
             }
@@ -53,24 +115,108 @@ public abstract class RequestBody {
     }
 
     /**
-     * 创建一个 JSON 类型的 RequestBody
+     * 从文件创建 RequestBody
+     * 
+     * 通过 FileChannel.transferTo() 分段写出，内存占用与文件大小无关；
+     * 每次 writeTo() 都重新打开文件，因此可以被重试和重定向重放
      */
-    public static RequestBody createJson(String json) {
-        return create(json, "application/json; charset=utf-8");
+    public static RequestBody create(File file, String mediaType) {
+        if (file == null) {
+            throw new IllegalArgumentException("file == null");
+        }
+        return new RequestBody() {
+            @Override
+            public String contentType() {
+                return mediaType;
+            }
+
+            @Override
+            public long contentLength() {
+                return file.length();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    // 不能关闭 target，否则会连带关闭 out
+                    WritableByteChannel target = Channels.newChannel(out);
+                    long size = channel.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, target);
+                    }
+                }
+                out.flush();
+            }
+        };
     }
 
     /**
-     * 创建一个表单类型的 RequestBody
+     * 从 InputStream 创建 RequestBody
+     * 流只能读取一次，因此这个请求体是一次性的，不会被重试或重定向重新发送
+     * 
+     * @param contentLength 内容长度，未知传 -1（请求体按 Transfer-Encoding: chunked 发送）
      */
-    public static RequestBody createForm(String formData) {
-        return create(formData, "application/x-www-form-urlencoded");
+    public static RequestBody create(InputStream inputStream, String mediaType, long contentLength) {
+        return new RequestBody() {
+            private boolean consumed;
+
+            @Override
+            public String contentType() {
+                return mediaType;
+            }
+
+            @Override
+            public long contentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                synchronized (this) {
+                    if (consumed) {
+                        throw new IllegalStateException("一次性请求体不能重复写出");
+                    }
+                    consumed = true;
+                }
+                try {
+                    byte[] buffer = new byte[8192];
+                    int len;
+                    while ((len = inputStream.read(buffer)) != -1) {
+                        out.write(buffer, 0, len);
+                    }
+                    out.flush();
+                } finally {
+                    inputStream.close();
+                }
+            }
+        };
     }
 
     /**
-     * 创建一个字节数组类型的 RequestBody
+     * 从 Flow.Publisher 创建 RequestBody
+     * 
+     * writeTo() 在当前线程上订阅并写出数据：每次只请求 1 个 ByteBuffer，
+     * 写入输出流完成后才请求下一个，写得慢时发布者自然被限速，内存占用固定。
+     * 发布者通常不能重新订阅，因此这个请求体是一次性的。
+     * 等待发布者时请求被取消、超时或连接被关闭，writeTo() 会取消订阅并失败，不会一直阻塞。
+     * 
+     * @param contentLength 内容长度，未知传 -1（请求体按 Transfer-Encoding: chunked 发送，
+     *                      等待发布者的下一块数据时会先把已经写入的数据发出去）
      */
-    public static RequestBody create(byte[] bytes, String mediaType) {
+    public static RequestBody fromPublisher(Flow.Publisher<ByteBuffer> publisher, String mediaType,
+                                            long contentLength) {
+        if (publisher == null) {
+            throw new IllegalArgumentException("publisher == null");
+        }
         return new RequestBody() {
+            private final AtomicBoolean consumed = new AtomicBoolean();
+
             @Override
             public String contentType() {
                 return mediaType;
@@ -78,15 +224,138 @@ public abstract class RequestBody {
 
             @Override
             public long contentLength() {
-                return bytes.length;
+                return contentLength;
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return true;
             }
 
             @Override
             public void writeTo(OutputStream out) throws IOException {
-                out.write(bytes);
-                out.flush();
+                writeTo(out, () -> false);
+            }
+
+            @Override
+            void writeTo(OutputStream out, BooleanSupplier stopped) throws IOException {
+                if (!consumed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("一次性请求体不能重复写出");
+                }
+                PublisherWriter writer = new PublisherWriter();
+                publisher.subscribe(writer);
+                writer.writeTo(out, stopped);
             }
         };
     }
-}
 
+    /**
+     * 把发布者的数据逐个写入输出流的订阅者
+     * 未完成的需求最多为 1，所以信号队列中最多只有一个数据块。
+     * 等待发布者时每隔 POLL_MILLIS 检查一次请求是否已经停止
+     */
+    private static final class PublisherWriter implements Flow.Subscriber<ByteBuffer> {
+        private static final Object COMPLETE = new Object();
+        private static final long POLL_MILLIS = 50;
+
+        private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            if (!subscription.complete(s)) {
+                s.cancel();
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            signals.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+
+        void writeTo(OutputStream out, BooleanSupplier stopped) throws IOException {
+            Flow.Subscription s = null;
+            try {
+                while (s == null) {
+                    try {
+                        s = subscription.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        checkStopped(stopped);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待订阅时被中断");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (IOException e) {
+                // 订阅可能在放弃之后才到达，到达时直接取消
+                subscription.thenAccept(Flow.Subscription::cancel);
+                throw e;
+            }
+
+            byte[] chunk = null;
+            boolean completed = false;
+            try {
+                s.request(1);
+                while (true) {
+                    Object signal = signals.poll();
+                    if (signal == null) {
+                        // 发布者还没有准备好下一块，先把已经写入的数据发出去（chunked 编码时会缓冲）
+                        out.flush();
+                        while ((signal = signals.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                            checkStopped(stopped);
+                        }
+                    }
+                    if (signal == COMPLETE) {
+                        break;
+                    }
+                    if (signal instanceof Throwable) {
+                        Throwable t = (Throwable) signal;
+                        throw t instanceof IOException ? (IOException) t : new IOException(t);
+                    }
+                    ByteBuffer buffer = (ByteBuffer) signal;
+                    if (buffer.hasArray()) {
+                        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    } else {
+                        if (chunk == null) {
+                            chunk = new byte[8192];
+                        }
+                        while (buffer.hasRemaining()) {
+                            int length = Math.min(chunk.length, buffer.remaining());
+                            buffer.get(chunk, 0, length);
+                            out.write(chunk, 0, length);
+                        }
+                    }
+                    // 写完当前数据块后才请求下一块
+                    s.request(1);
+                }
+                out.flush();
+                completed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("写出请求体时被中断");
+            } finally {
+                if (!completed) {
+                    s.cancel();
+                }
+            }
+        }
+
+        private static void checkStopped(BooleanSupplier stopped) throws IOException {
+            if (stopped.getAsBoolean()) {
+                throw new IOException("请求已停止，放弃等待请求体数据");
+            }
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package com.myokhttp;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 响应体
  * 包含服务器返回的数据
+ *
+ * 较小的响应体已经读入内存；较大或长度未知的响应体在读取时才从连接上读取，
+ * 用完必须读完或 close()，否则连接不会被释放
  */
 public abstract class ResponseBody implements Closeable {
+
+    // 按 Content-Length 预分配的上限，更大的响应体读取时再扩容
+    private static final int MAX_INITIAL_CAPACITY = 1 << 20;
     
     /**
      * 返回 Content-Type
@@ -25,20 +38,33 @@ public abstract class ResponseBody implements Closeable {
      */
     public abstract InputStream byteStream();
     
+    /**
+     * 根据 Content-Type 中的 charset 参数确定字符集
+     * 未声明或无法识别时默认使用 UTF-8
+     */
+    public Charset charset() {
+        return charset(contentType(), StandardCharsets.UTF_8);
+    }
+
     /**
      * 将响应体读取为字符串
+     * 
+     * 优化点：
+     * 1. 使用 Content-Type 声明的字符集，而不是固定 UTF-8
+     * 2. 内存中的响应体直接从底层数组解码，不经过 InputStream
+     * 3. 已知长度时按 contentLength() 预分配（有上限），避免多次扩容和拷贝
      */
     public String string() throws IOException {
+        Charset charset = charset();
+        byte[] buffered = bufferedBytes();
+        if (buffered != null) {
+            return new String(buffered, charset);
+        }
+
         InputStream in = byteStream();
         try {
-            Charset charset = StandardCharsets.UTF_8;
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = in.read(buffer)) != -1) {
-                out.write(buffer, 0, len);
-            }
-            return out.toString(charset.name());
+            ByteBuffer buffer = readFully(in, contentLength());
+            return new String(buffer.array(), 0, buffer.limit(), charset);
         } finally {
             in.close();
         }
@@ -48,20 +74,249 @@ public abstract class ResponseBody implements Closeable {
      * 将响应体读取为字节数组
      */
     public byte[] bytes() throws IOException {
+        byte[] buffered = bufferedBytes();
+        if (buffered != null) {
+            return buffered.clone();
+        }
+
         InputStream in = byteStream();
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = in.read(buffer)) != -1) {
-                out.write(buffer, 0, len);
-            }
-            return out.toByteArray();
+            ByteBuffer buffer = readFully(in, contentLength());
+            byte[] bytes = buffer.array();
+            return bytes.length == buffer.limit() ? bytes : Arrays.copyOf(bytes, buffer.limit());
         } finally {
             in.close();
         }
     }
 
+    /**
+     * 以 Flow.Publisher 的形式读取响应体
+     * 
+     * 背压由订阅者的 request(n) 驱动：只有存在需求时才从 byteStream() 读取下一块数据，
+     * 读取发生在调用 request(n) 的线程上，不额外占用线程。
+     * 超过 64 KiB 或长度未知的响应体直接从连接上读取（见 CallServerInterceptor.MAX_BUFFERED_BODY），
+     * 没有需求时不读 Socket，由 TCP 流控让服务器暂停发送，内存占用只有订阅者还持有的块。
+     * 内存中的响应体直接发出底层数组的只读切片，不再拷贝。
+     * 只支持一个订阅者，完成、出错或取消后响应体会被关闭。
+     */
+    public Flow.Publisher<ByteBuffer> publisher() {
+        AtomicBoolean subscribed = new AtomicBoolean();
+        return subscriber -> {
+            if (subscriber == null) {
+                throw new NullPointerException("subscriber == null");
+            }
+            if (!subscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("响应体只能被订阅一次"));
+                return;
+            }
+            BodySubscription subscription = new BodySubscription(this, subscriber);
+            subscriber.onSubscribe(subscription);
+        };
+    }
+
+    /**
+     * 按需从响应体读取数据并发给订阅者
+     * 
+     * 使用 wip 计数做蹦床（trampoline）：onNext() 里再次调用 request() 不会递归读取，
+     * 而是由正在排空的线程继续处理，保证同一时刻只有一个线程在读流、发信号
+     */
+    private static final class BodySubscription implements Flow.Subscription {
+        private static final int CHUNK_SIZE = 8192;
+
+        private final ResponseBody body;
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private boolean done;
+
+        private final byte[] buffered;
+        private int bufferedOffset;
+        private InputStream in;
+
+        BodySubscription(ResponseBody body, Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.body = body;
+            this.subscriber = subscriber;
+            this.buffered = body.bufferedBytes();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            // 累加需求，溢出时封顶为 Long.MAX_VALUE
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            closeQuietly();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (demand.get() > 0 && !cancelled && !done) {
+                    ByteBuffer chunk;
+                    try {
+                        chunk = nextChunk();
+                    } catch (IOException e) {
+                        done = true;
+                        closeQuietly();
+                        if (!cancelled) {
+                            subscriber.onError(e);
+                        }
+                        return;
+                    }
+                    if (chunk == null) {
+                        done = true;
+                        closeQuietly();
+                        if (!cancelled) {
+                            subscriber.onComplete();
+                        }
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(chunk);
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        /**
+         * 读取下一块数据，流结束返回 null
+         */
+        private ByteBuffer nextChunk() throws IOException {
+            if (buffered != null) {
+                if (bufferedOffset >= buffered.length) {
+                    return null;
+                }
+                int length = Math.min(CHUNK_SIZE, buffered.length - bufferedOffset);
+                ByteBuffer chunk = ByteBuffer.wrap(buffered, bufferedOffset, length).slice().asReadOnlyBuffer();
+                bufferedOffset += length;
+                return chunk;
+            }
+
+            if (in == null) {
+                in = body.byteStream();
+            }
+            // 订阅者可能持有发出的 ByteBuffer，每块使用新的数组
+            byte[] bytes = new byte[CHUNK_SIZE];
+            int count;
+            do {
+                count = in.read(bytes);
+            } while (count == 0);
+            if (count == -1) {
+                return null;
+            }
+            return ByteBuffer.wrap(bytes, 0, count);
+        }
+
+        private void closeQuietly() {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    /**
+     * 返回已经完整保存在内存中的响应体数据，没有则返回 null
+     * 调用方不能修改返回的数组
+     */
+    byte[] bufferedBytes() {
+        return null;
+    }
+
+    /**
+     * 读取流中的全部数据
+     * 已知长度时按声明的大小分配（最多 MAX_INITIAL_CAPACITY，声明的长度来自服务器，不能完全相信），
+     * 之后按倍数扩容，但不超过声明的长度
+     * 返回的 ByteBuffer 的 limit 是实际读到的字节数，底层数组末尾可能有未使用的空间
+     */
+    private static ByteBuffer readFully(InputStream in, long contentLength) throws IOException {
+        int capacity = contentLength >= 0
+                ? (int) Math.min(contentLength, MAX_INITIAL_CAPACITY)
+                : 8192;
+        byte[] bytes = new byte[capacity];
+        int length = 0;
+        while (true) {
+            if (length == bytes.length) {
+                if (length == contentLength) {
+                    // 已读满声明的长度，确认流确实结束，避免多分配一次
+                    int next = in.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    bytes = Arrays.copyOf(bytes, grow(length));
+                    bytes[length++] = (byte) next;
+                } else if (length < contentLength) {
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(grow(length), contentLength));
+                } else {
+                    bytes = Arrays.copyOf(bytes, grow(length));
+                }
+            }
+            int count = in.read(bytes, length, bytes.length - length);
+            if (count == -1) {
+                break;
+            }
+            length += count;
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    private static int grow(int length) {
+        if (length >= Integer.MAX_VALUE - 8) {
+            throw new OutOfMemoryError("响应体过大");
+        }
+        return (int) Math.min((long) length * 2 + 1, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * 解析 Content-Type 中的 charset 参数
+     * 例如 "text/html; charset=GBK"
+     */
+    static Charset charset(String contentType, Charset defaultValue) {
+        if (contentType == null) {
+            return defaultValue;
+        }
+        int index = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (index == -1) {
+            return defaultValue;
+        }
+        int start = index + "charset=".length();
+        int end = contentType.indexOf(';', start);
+        String name = (end == -1 ? contentType.substring(start) : contentType.substring(start, end)).trim();
+        if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            // 不支持或非法的字符集名称
+            return defaultValue;
+        }
+    }
+
     /**
      * 创建一个简单的 ResponseBody
      */
@@ -82,6 +337,11 @@ public abstract class ResponseBody implements Closeable {
                 return new ByteArrayInputStream(content);
             }
 
+            @Override
+            byte[] bufferedBytes() {
+                return content;
+            }
+
             @Override
             public void close() {
                 // ByteArrayInputStream 不需要关闭
@@ -1,7 +1,8 @@
 package com.myokhttp;
 
 import java.io.IOException;
-import java.net.SocketTimeoutException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 重试和重定向拦截器
@@ -11,12 +12,13 @@ import java.net.SocketTimeoutException;
  * 2. 处理 3xx 重定向响应
  * 3. 处理网络超时
  * 
- * 重试策略：
- * - 网络超时：可以重试
- * - DNS 解析失败：可以重试
- * - 连接失败：可以重试
+ * 重试策略由 OkHttpClient.retryPolicy() 决定，默认：
+ * - 最多尝试 3 次，重试前按 decorrelated jitter 退避
+ * - 只重试幂等请求；连接失败（请求还没有发出）时任何方法都可以重试
+ * - DNS 解析失败、SSL 握手失败、协议错误：不重试
  * - 4xx 客户端错误：不重试
- * - SSL 握手失败：不重试
+ * - 受客户端级别的重试预算限制
+ * - 408 立即重试；429 和 503 按 Retry-After 等待后重试，异步请求等待期间释放线程和名额
  */
 public class RetryAndFollowUpInterceptor implements Interceptor {
     
@@ -32,34 +34,73 @@ public class RetryAndFollowUpInterceptor implements Interceptor {
     @Override
     public Response intercept(Chain chain) throws IOException {
         Request request = chain.request();
+        RetryPolicy retryPolicy = client.retryPolicy();
+        RealCall call = chain.call() instanceof RealCall ? (RealCall) chain.call() : null;
         int followUpCount = 0;
+        int failureCount = 0;
+        long retryDelayMillis = 0;
+        if (call != null && call.retryRequest != null) {
+            // 延迟重试的异步请求重新排队后继续之前的计数
+            failureCount = call.retryAttempts;
+            retryDelayMillis = call.retryDelayMillis;
+        } else {
+            retryPolicy.onRequest(request);
+        }
 
         while (true) {
-            Response response = null;
-            boolean releaseConnection = true;
-            
+            Response response;
+
             try {
                 // 执行请求
                 response = chain.proceed(request);
-                releaseConnection = false;
             } catch (IOException e) {
                 // 请求失败，判断是否需要重试
                 if (!client.retryOnConnectionFailure()) {
                     throw e;
                 }
-                
-                if (!isRecoverable(e)) {
+
+                // 一次性请求体已经被消费，无法重新发送
+                if (isOneShot(request)) {
                     throw e;
                 }
-                
+
+                // 整体超时已到、请求已取消或被放弃，连接是被看门狗、cancel() 或 abandonExchange() 关闭的
+                if (call != null && (call.isTimedOut() || call.isExchangeStopped())) {
+                    throw e;
+                }
+
+                failureCount++;
+                long delayMillis = retryPolicy.retryDelayMillis(request, e, failureCount, retryDelayMillis);
+                if (delayMillis < 0 || !withinDeadline(call, delayMillis)) {
+                    throw e;
+                }
+
                 // 重试
-                System.out.println("请求失败，尝试重试: " + e.getMessage());
+                System.out.println("请求失败，" + delayMillis + " 毫秒后第 " + failureCount + " 次重试: " + e.getMessage());
+                sleep(call, delayMillis);
+                retryDelayMillis = delayMillis;
                 continue;
-            } finally {
-                // 如果需要释放连接但没有获得响应，说明发生了异常
-                if (releaseConnection && response == null) {
-                    // 连接会在下次重试时重新建立
+            }
+
+            // 服务器要求稍后重试（408、429、503）
+            long retryAfterMillis = client.retryOnConnectionFailure() && !isOneShot(request)
+                ? retryPolicy.retryAfterMillis(request, response, failureCount + 1)
+                : -1;
+            if (retryAfterMillis >= 0 && withinDeadline(call, retryAfterMillis)) {
+                failureCount++;
+                closeQuietly(response);
+                System.out.println("服务器返回 " + response.code() + "，" + retryAfterMillis + " 毫秒后第 "
+                    + failureCount + " 次重试");
+                if (retryAfterMillis > 0 && call != null && call.isAsync()) {
+                    // 异步请求不占用线程等待，交给 Dispatcher 到时间后重新排队
+                    call.retryRequest = request;
+                    call.retryAttempts = failureCount;
+                    call.retryDelayMillis = retryAfterMillis;
+                    throw new RetryDeferredException(retryAfterMillis);
                 }
+                sleep(call, retryAfterMillis);
+                retryDelayMillis = retryAfterMillis;
+                continue;
             }
 
             // 检查是否需要重定向
@@ -70,6 +111,20 @@ public class RetryAndFollowUpInterceptor implements Interceptor {
                 return response;
             }
 
+            // 已经取消或被放弃的请求不再重定向
+            if (call != null && call.isExchangeStopped()) {
+                closeQuietly(response);
+                throw new IOException("Canceled");
+            }
+
+            // 重定向请求仍然携带一次性请求体时无法重放，直接返回当前响应
+            if (isOneShot(followUp)) {
+                return response;
+            }
+
+            // 不再使用当前响应，释放响应体（流式响应体会关闭连接）
+            closeQuietly(response);
+
             // 检查重定向次数
             followUpCount++;
             if (followUpCount > MAX_FOLLOW_UPS) {
@@ -83,21 +138,46 @@ public class RetryAndFollowUpInterceptor implements Interceptor {
     }
 
     /**
-     * 判断异常是否可以重试
+     * 等待 delayMillis 后重试时是否还在整体超时之内，等到超时再重试没有意义
      */
-    private boolean isRecoverable(IOException e) {
-        // 超时可以重试
-        if (e instanceof SocketTimeoutException) {
-            return true;
+    private static boolean withinDeadline(RealCall call, long delayMillis) {
+        return call == null || TimeUnit.NANOSECONDS.toMillis(call.remainingNanos()) > delayMillis;
+    }
+
+    /**
+     * 重试前等待，线程被中断或请求被取消时放弃重试
+     */
+    private void sleep(RealCall call, long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        if (call != null) {
+            call.awaitRetry(millis);
+            return;
         }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("重试等待被中断");
+        }
+    }
 
-        // 连接被重置可以重试
-        if (e.getMessage() != null && e.getMessage().contains("Connection reset")) {
-            return true;
+    private static void closeQuietly(Response response) {
+        if (response.body() != null) {
+            try {
+                response.body().close();
+            } catch (IOException ignored) {
+            }
         }
+    }
 
-        // 默认可以重试
-        return true;
+    /**
+     * 请求体是否只能发送一次
+     */
+    private boolean isOneShot(Request request) {
+        RequestBody body = request.body();
+        return body != null && body.isOneShot();
     }
 
     /**
@@ -135,14 +215,6 @@ public class RetryAndFollowUpInterceptor implements Interceptor {
                 // 需要代理验证，暂不处理
                 return null;
                 
-            case 408: // Request Timeout
-                // 超时，可以重试
-                return response.request();
-                
-            case 503: // Service Unavailable
-                // 服务不可用，可以重试
-                return response.request();
-                
             default:
                 // 其他状态码不需要重定向
                 return null;
@@ -0,0 +1,25 @@
+package com.myokhttp;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 异步请求需要按 Retry-After 延迟重试
+ *
+ * 由 RetryAndFollowUpInterceptor 抛出，沿拦截器链传回 AsyncCall，
+ * AsyncCall 释放 Dispatcher 的名额，到时间后重新排队，不占用线程等待。
+ * 继承 InterruptedIOException，重试策略和熔断器不会把它当作网络失败。
+ */
+final class RetryDeferredException extends InterruptedIOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long delayMillis;
+
+    RetryDeferredException(long delayMillis) {
+        super("retry deferred " + delayMillis + "ms");
+        this.delayMillis = delayMillis;
+    }
+
+    long delayMillis() {
+        return delayMillis;
+    }
+}
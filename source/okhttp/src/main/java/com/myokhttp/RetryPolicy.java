@@ -0,0 +1,129 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重试策略：决定请求失败（IOException）后是否重试，以及重试前等待多久
+ *
+ * 由 RetryAndFollowUpInterceptor 调用，同一个 OkHttpClient 的所有请求共用一个策略实例。
+ * 默认实现见 RetryPolicy.Builder：
+ * - 最多尝试 maxAttempts 次（包括第一次）
+ * - 退避使用 decorrelated jitter：sleep = min(maxDelay, random(baseDelay, 上次 sleep * 3))
+ * - 只重试幂等请求；请求还没有发出（连接失败）时任何方法都可以重试
+ * - 重试预算：每个请求积累 budgetRatio 个额度，每次重试消耗 1 个，
+ *   后端整体故障时重试最多放大 budgetRatio 倍的负载，不会形成重试风暴
+ * - 429 和 503 只在带有 Retry-After 并且不超过 maxRetryAfter 时重试，408 立即重试
+ */
+public interface RetryPolicy {
+
+    /**
+     * 从不重试
+     */
+    RetryPolicy NONE = new RetryPolicy() {
+        @Override
+        public long retryDelayMillis(Request request, IOException e, int attempt, long previousDelayMillis) {
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return "RetryPolicy.NONE";
+        }
+    };
+
+    /**
+     * 每个请求第一次尝试前调用（重试和重定向不会再调用）
+     */
+    default void onRequest(Request request) {
+    }
+
+    /**
+     * 请求失败后调用
+     *
+     * @param attempt 已经失败的次数，从 1 开始
+     * @param previousDelayMillis 上一次重试前等待的毫秒数，第一次失败时为 0
+     * @return 重试前等待的毫秒数；小于 0 表示不重试
+     */
+    long retryDelayMillis(Request request, IOException e, int attempt, long previousDelayMillis);
+
+    /**
+     * 收到响应后调用，决定是否按服务器的要求（408、429、503 和 Retry-After）重试
+     * 同步请求在当前线程等待，异步请求释放 Dispatcher 的名额，到时间后重新排队
+     *
+     * @param attempt 包括这一次在内已经失败的次数，从 1 开始
+     * @return 重试前等待的毫秒数；小于 0 表示不重试，把响应返回给调用方
+     */
+    default long retryAfterMillis(Request request, Response response, int attempt) {
+        return -1;
+    }
+
+    class Builder {
+        int maxAttempts = 3;
+        long baseDelayMillis = 100;
+        long maxDelayMillis = 10_000;
+        double budgetRatio = 0.1;
+        double maxBudget = 10;
+        boolean retryNonIdempotent;
+        long maxRetryAfterMillis = 30_000;
+
+        /**
+         * 最多尝试次数（包括第一次），默认 3
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * 退避的最小和最大等待时间，默认 100 毫秒和 10 秒
+         */
+        public Builder backoff(long baseDelayMillis, long maxDelayMillis) {
+            if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+                throw new IllegalArgumentException("baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis");
+            }
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * 重试预算：重试次数最多占请求数的 budgetRatio，最多积累 maxBudget 次，
+         * 默认 0.1 和 10
+         */
+        public Builder budget(double budgetRatio, double maxBudget) {
+            if (budgetRatio < 0 || maxBudget < 1) {
+                throw new IllegalArgumentException("budgetRatio < 0 || maxBudget < 1");
+            }
+            this.budgetRatio = budgetRatio;
+            this.maxBudget = maxBudget;
+            return this;
+        }
+
+        /**
+         * 请求已经发出后失败时，是否也重试非幂等请求（例如 POST），默认不重试
+         */
+        public Builder retryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        /**
+         * 最多按 Retry-After 等待多久，默认 30 秒；服务器要求等待更久时不重试
+         */
+        public Builder maxRetryAfter(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration < 0");
+            }
+            this.maxRetryAfterMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new DefaultRetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.myokhttp;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 连接的路由：主机名、端口和解析出的一个具体地址
+ * 同一个主机解析出多个地址时，每个地址是一条路由
+ */
+public final class Route {
+
+    private final String host;
+    private final int port;
+    private final InetSocketAddress socketAddress;
+
+    public Route(String host, int port, InetSocketAddress socketAddress) {
+        if (host == null || socketAddress == null) {
+            throw new IllegalArgumentException("host == null || socketAddress == null");
+        }
+        this.host = host;
+        this.port = port;
+        this.socketAddress = socketAddress;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public InetSocketAddress socketAddress() {
+        return socketAddress;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Route)) {
+            return false;
+        }
+        Route that = (Route) other;
+        return host.equals(that.host) && port == that.port && socketAddress.equals(that.socketAddress);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = host.hashCode();
+        result = 31 * result + port;
+        result = 31 * result + socketAddress.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port + "/" + socketAddress.getAddress().getHostAddress();
+    }
+}
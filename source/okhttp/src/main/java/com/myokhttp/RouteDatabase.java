@@ -0,0 +1,79 @@
+package com.myokhttp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 最近连接失败的路由
+ *
+ * 连接某个地址失败后记录下来，之后一段时间内 RouteSelector 会把它排到最后尝试，
+ * 请求（包括重试）先连接其他地址，不会每次都在同一个不通的地址上等满连接超时。
+ * 连接成功或超过 failureTtl 后不再推迟。
+ * 每个 OkHttpClient 一个，由 newBuilder() 创建的客户端共享。
+ */
+public final class RouteDatabase {
+
+    // 默认的失败记录保留时间
+    private static final long DEFAULT_FAILURE_TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final long failureTtlNanos;
+
+    // 路由和最近一次失败的时间（纳秒）
+    private final Map<Route, Long> failedRoutes = new ConcurrentHashMap<>();
+
+    public RouteDatabase() {
+        this(DEFAULT_FAILURE_TTL_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    public RouteDatabase(long failureTtl, TimeUnit unit) {
+        if (failureTtl <= 0) {
+            throw new IllegalArgumentException("failureTtl <= 0");
+        }
+        this.failureTtlNanos = unit.toNanos(failureTtl);
+    }
+
+    /**
+     * 连接这条路由失败
+     */
+    public void failed(Route route) {
+        failedRoutes.put(route, System.nanoTime());
+    }
+
+    /**
+     * 连接这条路由成功，不再推迟它
+     */
+    public void connected(Route route) {
+        failedRoutes.remove(route);
+    }
+
+    /**
+     * 这条路由最近失败过，应该排到最后尝试
+     */
+    public boolean shouldPostpone(Route route) {
+        Long failedAt = failedRoutes.get(route);
+        if (failedAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - failedAt >= failureTtlNanos) {
+            failedRoutes.remove(route, failedAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 当前记录的失败路由
+     */
+    public List<Route> failedRoutes() {
+        List<Route> result = new ArrayList<>();
+        for (Route route : failedRoutes.keySet()) {
+            if (shouldPostpone(route)) {
+                result.add(route);
+            }
+        }
+        return result;
+    }
+}
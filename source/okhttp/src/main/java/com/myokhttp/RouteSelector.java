@@ -0,0 +1,59 @@
+package com.myokhttp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 为一次连接选择路由：主机解析出的所有地址，按顺序逐个尝试
+ *
+ * 最近失败过的路由（见 RouteDatabase）排到最后，
+ * 其他地址都连接失败时仍然会尝试它们。
+ */
+final class RouteSelector {
+
+    private final List<Route> routes;
+    private int nextIndex;
+
+    private RouteSelector(List<Route> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * 按解析出的地址排列路由
+     */
+    static RouteSelector of(String host, int port, List<InetAddress> addresses, RouteDatabase routeDatabase) {
+        List<Route> preferred = new ArrayList<>(addresses.size());
+        List<Route> postponed = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            Route route = new Route(host, port, new InetSocketAddress(address, port));
+            if (routeDatabase.shouldPostpone(route)) {
+                postponed.add(route);
+            } else {
+                preferred.add(route);
+            }
+        }
+        preferred.addAll(postponed);
+        return new RouteSelector(preferred);
+    }
+
+    boolean hasNext() {
+        return nextIndex < routes.size();
+    }
+
+    Route next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return routes.get(nextIndex++);
+    }
+
+    /**
+     * 所有路由，按尝试顺序
+     */
+    List<Route> routes() {
+        return routes;
+    }
+}
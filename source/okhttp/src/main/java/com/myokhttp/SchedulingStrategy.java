@@ -0,0 +1,38 @@
+package com.myokhttp;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.Function;
+
+/**
+ * 调度策略：决定 Dispatcher 等待队列中请求的出队顺序
+ *
+ * Dispatcher 为每个优先级创建一个队列，
+ * 队列的所有方法都在 Dispatcher 的锁内调用，实现不需要自己加锁。
+ * 提升请求时只用到 add()、isEmpty()、poll()，
+ * 取消单个请求时调用 remove(Object)，取消所有请求时会遍历队列
+ */
+public interface SchedulingStrategy {
+
+    /**
+     * 先进先出（默认）
+     */
+    SchedulingStrategy FIFO = new SchedulingStrategy() {
+        @Override
+        public <T> Queue<T> newQueue(Function<T, Request> requestOf) {
+            return new ArrayDeque<>();
+        }
+
+        @Override
+        public String toString() {
+            return "FIFO";
+        }
+    };
+
+    /**
+     * 创建一个等待队列
+     *
+     * @param requestOf 从队列元素取得对应的请求，用于按请求计算调度键
+     */
+    <T> Queue<T> newQueue(Function<T, Request> requestOf);
+}
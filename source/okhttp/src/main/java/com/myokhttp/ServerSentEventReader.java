@@ -0,0 +1,300 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Server-Sent Events 解析器
+ * 
+ * 事件流格式（text/event-stream）：
+ * id: 42
+ * event: update
+ * data: 第一行
+ * data: 第二行
+ * retry: 5000
+ * : 以冒号开头的是注释
+ * [空行表示一个事件结束]
+ * 
+ * 实现要点：
+ * 1. 增量解析：每次从流中读取一块到复用的缓冲区，在字节层面切分行、匹配字段名
+ * 2. 不为每一行创建 String，data 的多行内容累积在复用的字节数组中，
+ *    一个事件结束时才解码成一个 String
+ * 3. id 没有变化时复用上一次的 String
+ * 
+ * 不是线程安全的，一个实例只能由一个线程使用
+ */
+public final class ServerSentEventReader {
+
+    private static final byte[] DATA = {'d', 'a', 't', 'a'};
+    private static final byte[] EVENT = {'e', 'v', 'e', 'n', 't'};
+    private static final byte[] ID = {'i', 'd'};
+    private static final byte[] RETRY = {'r', 'e', 't', 'r', 'y'};
+
+    /**
+     * 事件回调
+     */
+    public interface Callback {
+        /**
+         * 收到一个完整事件
+         * 
+         * @param id 最近一次的事件 id，没有则为 null
+         * @param type 事件类型，没有 event 字段时为 null
+         * @param data 事件数据，多行之间用 \n 连接
+         */
+        void onEvent(String id, String type, String data);
+
+        /**
+         * 服务器通过 retry 字段修改了重连间隔
+         */
+        void onRetryChange(long timeMillis);
+    }
+
+    private final InputStream in;
+    private final Callback callback;
+
+    // 读缓冲区：[pos, limit) 是还没处理的数据
+    private byte[] buffer = new byte[8192];
+    private int pos;
+    private int limit;
+    private boolean exhausted;
+    // 上一行以 \r 结尾，如果下一个字节是 \n 需要跳过
+    private boolean skipLf;
+    private boolean bomChecked;
+
+    // 当前事件的 data 累积区，跨事件复用
+    private byte[] data = new byte[256];
+    private int dataLength;
+    private String eventType;
+
+    // 最近一次的事件 id，在事件之间保持
+    private byte[] lastIdBytes = new byte[0];
+    private String lastId;
+
+    public ServerSentEventReader(InputStream in, Callback callback) {
+        this(in, null, callback);
+    }
+
+    /**
+     * @param lastId 之前的连接中最近一次的事件 id，重连后在服务器发送新的 id 之前继续使用
+     */
+    public ServerSentEventReader(InputStream in, String lastId, Callback callback) {
+        if (in == null || callback == null) {
+            throw new IllegalArgumentException("in == null || callback == null");
+        }
+        this.in = in;
+        this.callback = callback;
+        if (lastId != null) {
+            this.lastId = lastId;
+            this.lastIdBytes = lastId.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 读取并分发下一个事件
+     * 
+     * @return 流结束时返回 false
+     */
+    public boolean processNextEvent() throws IOException {
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd == -1) {
+                // 流结束时未完成的事件按规范丢弃
+                return false;
+            }
+
+            int start = pos;
+            consumeLine(lineEnd);
+
+            if (lineEnd == start) {
+                // 空行：分发事件
+                if (dispatchEvent()) {
+                    return true;
+                }
+                continue;
+            }
+            processField(start, lineEnd);
+        }
+    }
+
+    /**
+     * 返回从 pos 开始的下一行的结束位置（不含换行符），需要时从流中读取更多数据；
+     * 流结束且没有剩余数据时返回 -1
+     */
+    private int findLineEnd() throws IOException {
+        // 已经扫描过的字节数（相对 pos），fill() 会移动数据，所以不能记绝对位置
+        int scanned = 0;
+        while (true) {
+            if (skipLf && pos < limit) {
+                skipLf = false;
+                if (buffer[pos] == '\n') {
+                    pos++;
+                }
+            }
+            if (!bomChecked && limit - pos >= 3) {
+                bomChecked = true;
+                if (buffer[pos] == (byte) 0xEF && buffer[pos + 1] == (byte) 0xBB && buffer[pos + 2] == (byte) 0xBF) {
+                    pos += 3;
+                    scanned = Math.max(0, scanned - 3);
+                }
+            }
+            for (int i = pos + scanned; i < limit; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    return i;
+                }
+            }
+            scanned = limit - pos;
+            if (exhausted || !fill()) {
+                if (pos < limit) {
+                    // 最后一行没有换行符，交给调用方按一行处理
+                    return limit;
+                }
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 跳过当前行和它的换行符
+     */
+    private void consumeLine(int lineEnd) {
+        if (lineEnd < limit) {
+            if (buffer[lineEnd] == '\r') {
+                skipLf = true;
+            }
+            pos = lineEnd + 1;
+        } else {
+            pos = lineEnd;
+        }
+    }
+
+    /**
+     * 从流中读取更多数据，必要时把未处理的数据移动到缓冲区开头或扩容
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            // 单行超过缓冲区大小
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int count = in.read(buffer, limit, buffer.length - limit);
+        if (count == -1) {
+            exhausted = true;
+            return false;
+        }
+        limit += count;
+        return true;
+    }
+
+    private void processField(int start, int end) {
+        if (buffer[start] == ':') {
+            // 注释
+            return;
+        }
+
+        int colon = -1;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == ':') {
+                colon = i;
+                break;
+            }
+        }
+        int nameEnd = colon == -1 ? end : colon;
+        int valueStart = colon == -1 ? end : colon + 1;
+        if (valueStart < end && buffer[valueStart] == ' ') {
+            valueStart++;
+        }
+
+        if (fieldEquals(start, nameEnd, DATA)) {
+            appendData(valueStart, end);
+        } else if (fieldEquals(start, nameEnd, EVENT)) {
+            eventType = valueStart == end ? null : new String(buffer, valueStart, end - valueStart, StandardCharsets.UTF_8);
+        } else if (fieldEquals(start, nameEnd, ID)) {
+            updateId(valueStart, end);
+        } else if (fieldEquals(start, nameEnd, RETRY)) {
+            long retry = parseRetry(valueStart, end);
+            if (retry != -1) {
+                callback.onRetryChange(retry);
+            }
+        }
+        // 其他字段忽略
+    }
+
+    private boolean fieldEquals(int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendData(int start, int end) {
+        int length = end - start;
+        int required = dataLength + length + 1;
+        if (required > data.length) {
+            data = Arrays.copyOf(data, Math.max(required, data.length * 2));
+        }
+        System.arraycopy(buffer, start, data, dataLength, length);
+        dataLength += length;
+        data[dataLength++] = '\n';
+    }
+
+    private void updateId(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == 0) {
+                // 包含 NUL 的 id 按规范忽略
+                return;
+            }
+        }
+        int length = end - start;
+        if (length == lastIdBytes.length && Arrays.equals(buffer, start, end, lastIdBytes, 0, length)) {
+            return;
+        }
+        lastIdBytes = Arrays.copyOfRange(buffer, start, end);
+        lastId = length == 0 ? null : new String(lastIdBytes, StandardCharsets.UTF_8);
+    }
+
+    private long parseRetry(int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            result = result * 10 + (b - '0');
+        }
+        return result;
+    }
+
+    /**
+     * 分发累积的事件，没有 data 时只重置状态
+     * 
+     * @return 是否分发了事件
+     */
+    private boolean dispatchEvent() {
+        if (dataLength == 0) {
+            eventType = null;
+            return false;
+        }
+        // 去掉最后一个 \n
+        String value = new String(data, 0, dataLength - 1, StandardCharsets.UTF_8);
+        String type = eventType;
+        dataLength = 0;
+        eventType = null;
+        callback.onEvent(lastId, type, value);
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+package com.myokhttp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 超时看门狗：所有客户端共享的一个线程，负责整体超时（callTimeout）和写超时
+ *
+ * 使用时间轮（hashed timer wheel）：WHEEL_SIZE 个槽，每 TICK_NANOS 前进一格，
+ * 超时按到期的格数放进对应的槽，添加和取消都是 O(1)，不会每个请求一个定时任务。
+ * 精度是一格（10 毫秒）。
+ *
+ * 到期的动作在看门狗线程上执行，只能做关闭 Socket 这类很快的操作：
+ * Java 的阻塞读写无法被中断，关闭 Socket 会让它们立即抛出异常。
+ */
+final class Watchdog {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 512;
+
+    private static Watchdog shared;
+
+    // 每个槽中的超时（由 this 的锁保护）
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Set<Timeout>[] wheel = new Set[WHEEL_SIZE];
+    private final long startNanos = System.nanoTime();
+    // 已经处理到的格数
+    private long currentTick;
+    private int pending;
+    private Thread thread;
+
+    static synchronized Watchdog shared() {
+        if (shared == null) {
+            shared = new Watchdog();
+        }
+        return shared;
+    }
+
+    /**
+     * delay 之后执行 action，除非先被 cancel()
+     */
+    synchronized Timeout schedule(long delay, TimeUnit unit, Runnable action) {
+        long deadlineTick = ceilTick(System.nanoTime() - startNanos + unit.toNanos(delay));
+        Timeout timeout = new Timeout(Math.max(currentTick + 1, deadlineTick), action);
+        int slot = (int) (timeout.tick % WHEEL_SIZE);
+        if (wheel[slot] == null) {
+            wheel[slot] = new HashSet<>();
+        }
+        wheel[slot].add(timeout);
+        pending++;
+        if (thread == null) {
+            thread = new Thread(this::loop, "OkHttp Watchdog");
+            thread.setDaemon(true);
+            thread.start();
+        } else if (pending == 1) {
+            notifyAll();
+        }
+        return timeout;
+    }
+
+    /**
+     * 等待中的超时数
+     */
+    synchronized int pendingCount() {
+        return pending;
+    }
+
+    private void loop() {
+        while (true) {
+            List<Timeout> expired;
+            try {
+                expired = awaitExpired();
+            } catch (InterruptedException e) {
+                // 守护线程，不会被中断
+                continue;
+            }
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.action.run();
+                } catch (RuntimeException e) {
+                    System.out.println("超时处理失败: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 等到下一格，返回这期间到期的超时
+     */
+    private synchronized List<Timeout> awaitExpired() throws InterruptedException {
+        while (pending == 0) {
+            wait();
+            // 空闲期间时间轮没有前进，从当前时间继续
+            currentTick = Math.max(currentTick, (System.nanoTime() - startNanos) / TICK_NANOS);
+        }
+        long nextTickAt = startNanos + (currentTick + 1) * TICK_NANOS;
+        long waitNanos = nextTickAt - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+        }
+
+        List<Timeout> expired = new ArrayList<>();
+        long nowTick = (System.nanoTime() - startNanos) / TICK_NANOS;
+        // 线程落后超过一圈时每个槽只需要检查一次
+        long from = Math.max(currentTick + 1, nowTick - WHEEL_SIZE + 1);
+        for (long tick = from; tick <= nowTick; tick++) {
+            Set<Timeout> slot = wheel[(int) (tick % WHEEL_SIZE)];
+            if (slot == null || slot.isEmpty()) {
+                continue;
+            }
+            for (Iterator<Timeout> iterator = slot.iterator(); iterator.hasNext(); ) {
+                Timeout timeout = iterator.next();
+                if (timeout.tick <= nowTick) {
+                    iterator.remove();
+                    timeout.state = Timeout.EXPIRED;
+                    pending--;
+                    expired.add(timeout);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return expired;
+    }
+
+    private static long ceilTick(long nanos) {
+        return (nanos + TICK_NANOS - 1) / TICK_NANOS;
+    }
+
+    /**
+     * 一个超时，由 schedule() 返回
+     */
+    final class Timeout {
+        static final int PENDING = 0;
+        static final int EXPIRED = 1;
+        static final int CANCELED = 2;
+
+        final long tick;
+        final Runnable action;
+        // 由 Watchdog 的锁保护
+        int state = PENDING;
+
+        Timeout(long tick, Runnable action) {
+            this.tick = tick;
+            this.action = action;
+        }
+
+        /**
+         * 取消超时
+         *
+         * @return 是否在到期前取消；返回 false 表示动作已经（或正在）执行
+         */
+        boolean cancel() {
+            synchronized (Watchdog.this) {
+                if (state != PENDING) {
+                    return state == CANCELED;
+                }
+                state = CANCELED;
+                wheel[(int) (tick % WHEEL_SIZE)].remove(this);
+                pending--;
+                return true;
+            }
+        }
+
+        boolean isExpired() {
+            synchronized (Watchdog.this) {
+                return state == EXPIRED;
+            }
+        }
+    }
+}
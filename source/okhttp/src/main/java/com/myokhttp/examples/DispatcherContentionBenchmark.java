@@ -0,0 +1,147 @@
+package com.myokhttp.examples;
+
+import com.myokhttp.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 示例10：Dispatcher 竞争测试
+ * 
+ * 只测调度器本身的开销：应用拦截器直接返回响应，不发生网络 I/O；
+ * 线程池在提交线程上直接执行任务。
+ * 分别用 1~64 个提交线程同时执行同步请求（execute）和异步请求（enqueue），
+ * 统计每秒完成的请求数。
+ * 
+ * 运行：java DispatcherContentionBenchmark [每个线程的请求数=200000]
+ */
+public class DispatcherContentionBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        int callsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        Dispatcher dispatcher = new Dispatcher(new DirectExecutorService());
+        dispatcher.setMaxRequests(1024);
+        dispatcher.setMaxRequestsPerHost(1024);
+
+        Request request = new Request.Builder().url("http://localhost/bench").build();
+        Response canned = new Response.Builder()
+                .request(request)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(new byte[0], "text/plain"))
+                .build();
+
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .addInterceptor(chain -> canned)
+                .build();
+
+        // 预热
+        run(client, request, 4, callsPerThread / 4, true);
+        run(client, request, 4, callsPerThread / 4, false);
+
+        System.out.printf("%-8s %16s %16s%n", "线程数", "execute(ops/s)", "enqueue(ops/s)");
+        for (int threads : THREAD_COUNTS) {
+            double sync = run(client, request, threads, callsPerThread, true);
+            double async = run(client, request, threads, callsPerThread, false);
+            System.out.printf("%-8d %16.0f %16.0f%n", threads, sync, async);
+        }
+    }
+
+    private static double run(OkHttpClient client, Request request, int threads, int callsPerThread,
+                              boolean sync) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong completed = new AtomicLong();
+        Call.Callback callback = new Call.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                throw new AssertionError(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                completed.incrementAndGet();
+            }
+        };
+
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < callsPerThread; i++) {
+                        Call call = client.newCall(request);
+                        if (sync) {
+                            call.execute();
+                            completed.incrementAndGet();
+                        } else {
+                            call.enqueue(callback);
+                        }
+                    }
+                } catch (InterruptedException | IOException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        // 异步请求可能还在排队，等待全部完成
+        long total = (long) threads * callsPerThread;
+        while (completed.get() < total) {
+            Thread.onSpinWait();
+        }
+        long elapsed = System.nanoTime() - begin;
+        return total * 1e9 / elapsed;
+    }
+
+    /**
+     * 在提交线程上直接执行任务
+     */
+    static class DirectExecutorService extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.myokhttp.examples;
+
+import com.myokhttp.*;
+
+import java.io.IOException;
+
+/**
+ * 示例8：Server-Sent Events
+ * 
+ * 演示如何订阅一个 text/event-stream 事件流
+ */
+public class EventSourceExample {
+    
+    public static void main(String[] args) throws InterruptedException {
+        OkHttpClient client = new OkHttpClient.Builder().build();
+
+        Request request = new Request.Builder()
+                .url(args.length > 0 ? args[0] : "http://localhost:8080/events")
+                .build();
+
+        // 创建后立即开始连接，断线后会带上 Last-Event-ID 自动重连
+        EventSource eventSource = client.newEventSource(request, new EventSource.Listener() {
+            @Override
+            public void onOpen(EventSource eventSource, Response response) {
+                System.out.println("事件流已连接: " + response.code());
+            }
+
+            @Override
+            public void onEvent(EventSource eventSource, String id, String type, String data) {
+                System.out.println("事件 id=" + id + ", type=" + type + ", data=" + data);
+            }
+
+            @Override
+            public void onClosed(EventSource eventSource) {
+                System.out.println("事件流已关闭");
+            }
+
+            @Override
+            public void onFailure(EventSource eventSource, IOException e, Response response) {
+                System.err.println("事件流失败: " + e.getMessage());
+            }
+        });
+
+        // 接收 30 秒后关闭
+        Thread.sleep(30_000);
+        eventSource.cancel();
+    }
+}
@@ -0,0 +1,44 @@
+package com.myokhttp.examples;
+
+import com.myokhttp.*;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 示例7：multipart 文件上传
+ * 
+ * 演示如何同时上传表单字段和文件
+ */
+public class MultipartExample {
+    
+    public static void main(String[] args) {
+        OkHttpClient client = new OkHttpClient.Builder().build();
+
+        // 文件内容在发送时才从磁盘流式读取，不会整体加载到内存
+        File file = new File(args.length > 0 ? args[0] : "README.md");
+
+        MultipartBody body = new MultipartBody.Builder()
+                .addFormDataPart("title", "学习笔记")
+                .addFormDataPart("file", file.getName(), RequestBody.create(file, "text/markdown"))
+                .build();
+
+        // 所有部分长度已知，可以直接发送 Content-Length
+        System.out.println("Content-Length: " + body.contentLength());
+
+        Request request = new Request.Builder()
+                .url("http://httpbin.org/post")
+                .post(body)
+                .build();
+
+        try {
+            Response response = client.newCall(request).execute();
+            System.out.println("状态码: " + response.code());
+            System.out.println("响应: " + response.body().string());
+            response.body().close();
+        } catch (IOException e) {
+            System.err.println("上传失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
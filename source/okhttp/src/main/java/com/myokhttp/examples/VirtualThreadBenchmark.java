@@ -0,0 +1,283 @@
+package com.myokhttp.examples;
+
+import com.myokhttp.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 示例9：平台线程 vs 虚拟线程
+ * 
+ * 在本地启动一个慢服务器（每个请求延迟 delayMs 后响应），
+ * 分别用平台线程和虚拟线程的 Dispatcher 同时发起 calls 个异步请求，
+ * 比较总耗时、线程数和内存占用。
+ * 
+ * 运行：java VirtualThreadBenchmark [calls=10000] [delayMs=1000]
+ * 虚拟线程需要 JDK 21+；10k 并发连接需要把文件描述符上限调到 25000 以上（ulimit -n）
+ */
+public class VirtualThreadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int delayMs = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        SlowServer server = new SlowServer(delayMs, calls);
+        server.start();
+        try {
+            System.out.println("并发请求数: " + calls + ", 服务器延迟: " + delayMs + "ms");
+            System.out.printf("%-10s %10s %10s %10s %12s%n", "模式", "耗时(ms)", "失败数", "峰值线程", "堆内存(MB)");
+
+            run("platform", new Dispatcher(), calls, delayMs, server.port());
+
+            Dispatcher virtual;
+            try {
+                virtual = Dispatcher.virtualThreads();
+            } catch (UnsupportedOperationException e) {
+                System.out.println("virtual    跳过: " + e.getMessage());
+                return;
+            }
+            run("virtual", virtual, calls, delayMs, server.port());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void run(String mode, Dispatcher dispatcher, int calls, int delayMs, int port)
+            throws InterruptedException {
+        dispatcher.setMaxRequests(calls);
+        dispatcher.setMaxRequestsPerHost(calls);
+        ConnectionPool pool = new ConnectionPool(calls, 1, TimeUnit.MINUTES);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(pool)
+                .connectTimeout(30_000)
+                .readTimeout(delayMs + 30_000)
+                .build();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+
+        CountDownLatch latch = new CountDownLatch(calls);
+        AtomicInteger failures = new AtomicInteger();
+        Request request = new Request.Builder().url("http://127.0.0.1:" + port + "/slow").build();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            client.newCall(request).enqueue(new Call.Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    failures.incrementAndGet();
+                    latch.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    response.body().close();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        System.out.printf("%-10s %10d %10d %10d %12d%n",
+                mode, elapsedMs, failures.get(), threads.getPeakThreadCount(), usedMb);
+
+        pool.evictAll();
+        dispatcher.executorService().shutdown();
+    }
+
+    /**
+     * 单线程 NIO 慢服务器：读完请求头后延迟 delayMs 再写回响应，支持 Keep-Alive
+     * 服务端不为每个连接创建线程，避免干扰客户端的线程统计
+     */
+    static class SlowServer implements Runnable {
+        private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Length: 2\r\n"
+                + "\r\n"
+                + "ok").getBytes(StandardCharsets.US_ASCII);
+
+        private final long delayNanos;
+        private final int backlog;
+        private final Selector selector;
+        private final ServerSocketChannel serverChannel;
+        // 按到期时间排序的待发送响应
+        private final PriorityQueue<PendingResponse> pending = new PriorityQueue<>();
+        private Thread thread;
+
+        SlowServer(long delayMs, int backlog) throws IOException {
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMs);
+            this.backlog = backlog;
+            this.selector = Selector.open();
+            this.serverChannel = ServerSocketChannel.open();
+        }
+
+        void start() throws IOException {
+            serverChannel.bind(new InetSocketAddress("127.0.0.1", 0), backlog);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            thread = new Thread(this, "SlowServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverChannel.socket().getLocalPort();
+        }
+
+        void close() throws IOException {
+            thread.interrupt();
+            selector.close();
+            serverChannel.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    long waitMs = 0;
+                    PendingResponse next = pending.peek();
+                    if (next != null) {
+                        waitMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.dueNanos - System.nanoTime()));
+                    }
+                    selector.select(waitMs);
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            flush(key);
+                        }
+                    }
+
+                    long now = System.nanoTime();
+                    while (!pending.isEmpty() && pending.peek().dueNanos <= now) {
+                        respond(pending.poll().key);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // 服务器关闭
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection());
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            int count;
+            try {
+                count = channel.read(connection.in);
+            } catch (IOException e) {
+                count = -1;
+            }
+            if (count == -1) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+
+            // 每遇到一个 \r\n\r\n 就是一个完整的请求头（GET 请求没有请求体）
+            ByteBuffer in = connection.in;
+            in.flip();
+            int matched = 0;
+            int consumed = 0;
+            for (int i = in.position(); i < in.limit(); i++) {
+                byte b = in.get(i);
+                matched = (b == '\r' || b == '\n') ? (b == expected(matched) ? matched + 1 : (b == '\r' ? 1 : 0)) : 0;
+                if (matched == 4) {
+                    pending.add(new PendingResponse(key, System.nanoTime() + delayNanos));
+                    consumed = i + 1;
+                    matched = 0;
+                }
+            }
+            in.position(consumed);
+            in.compact();
+        }
+
+        private static byte expected(int matched) {
+            return (byte) (matched % 2 == 0 ? '\r' : '\n');
+        }
+
+        private void respond(SelectionKey key) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            connection.out.add(ByteBuffer.wrap(RESPONSE));
+            flush(key);
+        }
+
+        private void flush(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            try {
+                while (!connection.out.isEmpty()) {
+                    ByteBuffer buffer = connection.out.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    connection.out.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                key.cancel();
+                channel.close();
+            }
+        }
+
+        static class Connection {
+            final ByteBuffer in = ByteBuffer.allocate(8192);
+            final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        }
+
+        static class PendingResponse implements Comparable<PendingResponse> {
+            final SelectionKey key;
+            final long dueNanos;
+
+            PendingResponse(SelectionKey key, long dueNanos) {
+                this.key = key;
+                this.dueNanos = dueNanos;
+            }
+
+            @Override
+            public int compareTo(PendingResponse other) {
+                return Long.compare(dueNanos, other.dueNanos);
+            }
+        }
+    }
+}
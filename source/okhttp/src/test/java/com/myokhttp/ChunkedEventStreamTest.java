@@ -0,0 +1,176 @@
+package com.myokhttp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * chunked 编码的事件流测试
+ *
+ * 没有引入测试框架，直接运行 main()，任何一项不符合预期都会抛出 AssertionError
+ */
+public class ChunkedEventStreamTest {
+
+    // data 行被切分到两个块中
+    private static final String[] CHUNKS = {
+        "id: 1\ndata: hel",
+        "lo\n\n",
+        "id: 2\nevent: update\ndata: wor",
+        "ld\ndata: second line\n\n",
+    };
+
+    public static void main(String[] args) throws Exception {
+        readerDecodesChunks();
+        streamingResponseDecodesChunks();
+        bufferedResponseDecodesChunksAndReusesConnection();
+        System.out.println("ChunkedEventStreamTest 全部通过");
+    }
+
+    /**
+     * ServerSentEventReader 只看到块中的数据，读到结束块时结束
+     */
+    private static void readerDecodesChunks() throws IOException {
+        InputStream in = new CallServerInterceptor.ChunkedInputStream(
+            new ByteArrayInputStream(encode(CHUNKS, "Expires: never\r\n")));
+        checkEvents(readEvents(in));
+    }
+
+    /**
+     * 通过客户端读取没有 Content-Length 的 chunked 事件流
+     */
+    private static void streamingResponseDecodesChunks() throws Exception {
+        try (ServerSocket server = serve("text/event-stream", encode(CHUNKS, ""))) {
+            OkHttpClient client = new OkHttpClient.Builder().build();
+            Response response = client.newCall(new Request.Builder().url(url(server)).build()).execute();
+            try {
+                checkEvents(readEvents(response.body().byteStream()));
+            } finally {
+                response.body().close();
+            }
+        }
+    }
+
+    /**
+     * 普通的 chunked 响应体读完后连接回到连接池，下一个请求复用它
+     */
+    private static void bufferedResponseDecodesChunksAndReusesConnection() throws Exception {
+        String[] chunks = {"hello, ", "chunked ", "world"};
+        try (ServerSocket server = serve("text/plain", encode(chunks, ""))) {
+            OkHttpClient client = new OkHttpClient.Builder().build();
+            for (int i = 0; i < 2; i++) {
+                Response response = client.newCall(new Request.Builder().url(url(server)).build()).execute();
+                check("hello, chunked world".equals(response.body().string()), "响应体: " + i);
+            }
+        }
+    }
+
+    private static List<String> readEvents(InputStream in) throws IOException {
+        List<String> events = new ArrayList<>();
+        ServerSentEventReader reader = new ServerSentEventReader(in, new ServerSentEventReader.Callback() {
+            @Override
+            public void onEvent(String id, String type, String data) {
+                events.add(id + "|" + type + "|" + data);
+            }
+
+            @Override
+            public void onRetryChange(long timeMillis) {
+            }
+        });
+        while (reader.processNextEvent()) {
+            // 读到流结束
+        }
+        return events;
+    }
+
+    private static void checkEvents(List<String> events) {
+        check(events.size() == 2, "事件数: " + events);
+        check("1|null|hello".equals(events.get(0)), "第一个事件: " + events.get(0));
+        check("2|update|world\nsecond line".equals(events.get(1)), "第二个事件: " + events.get(1));
+    }
+
+    private static byte[] encode(String[] chunks, String trailers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String chunk : chunks) {
+            byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+            // 带一个会被忽略的块扩展
+            out.writeBytes((Integer.toHexString(bytes.length) + ";ext=1\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(bytes);
+            out.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        out.writeBytes(("0\r\n" + trailers + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    /**
+     * 对每个请求都返回同样的 chunked 响应，连接保持打开
+     */
+    private static ServerSocket serve(String contentType, byte[] body) throws IOException {
+        ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = server.accept();
+                    Thread connection = new Thread(() -> respond(socket, contentType, body));
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static void respond(Socket socket, String contentType, byte[] body) {
+        try (Socket s = socket) {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            while (skipRequest(in)) {
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: " + contentType
+                    + "\r\nTransfer-Encoding: chunked\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 读到请求头结束的空行，连接关闭时返回 false
+     */
+    private static boolean skipRequest(InputStream in) throws IOException {
+        int lineLength = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (lineLength == 0) {
+                    return true;
+                }
+                lineLength = 0;
+            } else if (b != '\r') {
+                lineLength++;
+            }
+        }
+        return false;
+    }
+
+    private static String url(ServerSocket server) {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
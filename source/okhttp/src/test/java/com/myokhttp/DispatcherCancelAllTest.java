@@ -0,0 +1,143 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatcher.cancelAll() 测试：令牌桶等待队列和主机暂停队列中的请求都被取消
+ *
+ * 没有引入测试框架，直接运行 main()，任何一项不符合预期都会抛出 AssertionError
+ */
+public class DispatcherCancelAllTest {
+
+    public static void main(String[] args) throws Exception {
+        cancelsRateLimitedCalls();
+        cancelsParkedCalls();
+        System.out.println("DispatcherCancelAllTest 全部通过");
+    }
+
+    /**
+     * 每个主机只有一个令牌，第二个请求留在令牌桶等待队列中
+     */
+    private static void cancelsRateLimitedCalls() throws Exception {
+        OkHttpClient client = new OkHttpClient.Builder().build();
+        client.dispatcher().setRateLimiter(new RateLimiter.Builder().rate(0.01, 1).build());
+        cancelAll(client);
+    }
+
+    /**
+     * 每个主机最多一个请求，第二个请求暂停在主机的队列中
+     */
+    private static void cancelsParkedCalls() throws Exception {
+        OkHttpClient client = new OkHttpClient.Builder().build();
+        client.dispatcher().setMaxRequestsPerHost(1);
+        cancelAll(client);
+    }
+
+    /**
+     * 两个主机各两个异步请求（一个执行中、一个排队），再加一个执行中的同步请求，
+     * cancelAll() 之后全部以失败结束
+     */
+    private static void cancelAll(OkHttpClient client) throws Exception {
+        try (ServerSocket server = silentServer()) {
+            String[] hosts = {"127.0.0.1", "localhost"};
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(5);
+            Call.Callback callback = new Call.Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    failures.add(e);
+                    done.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    done.countDown();
+                }
+            };
+            for (String host : hosts) {
+                for (int i = 0; i < 2; i++) {
+                    client.newCall(request(host, server)).enqueue(callback);
+                }
+            }
+            check(client.dispatcher().queuedCallsCount() == 2, "排队: " + client.dispatcher().queuedCallsCount());
+
+            Call sync = client.newCall(request("127.0.0.2", server));
+            Thread syncThread = new Thread(() -> {
+                try {
+                    sync.execute();
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+                done.countDown();
+            });
+            syncThread.start();
+            awaitRunning(client, 3);
+
+            client.dispatcher().cancelAll();
+
+            check(done.await(5, TimeUnit.SECONDS), "请求没有全部结束");
+            check(failures.size() == 5, "失败数: " + failures);
+            check(client.dispatcher().queuedCallsCount() == 0, "排队: " + client.dispatcher().queuedCallsCount());
+        } finally {
+            client.dispatcher().executorService().shutdown();
+        }
+    }
+
+    private static void awaitRunning(OkHttpClient client, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.dispatcher().runningCallsCount() < count) {
+            check(System.nanoTime() < deadline, "执行中: " + client.dispatcher().runningCallsCount());
+            Thread.sleep(10);
+        }
+    }
+
+    private static Request request(String host, ServerSocket server) {
+        return new Request.Builder().url("http://" + host + ":" + server.getLocalPort() + "/").build();
+    }
+
+    /**
+     * 接受连接、读取请求，但从不响应
+     */
+    private static ServerSocket silentServer() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("0.0.0.0"));
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = server.accept();
+                    Thread reader = new Thread(() -> drain(socket));
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static void drain(Socket socket) {
+        try (Socket s = socket; InputStream in = s.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // 丢弃
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
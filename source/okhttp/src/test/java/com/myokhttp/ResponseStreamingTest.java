@@ -0,0 +1,205 @@
+package com.myokhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 大响应体的流式读取测试：publisher() 的背压到达 Socket，读完后连接可以复用
+ *
+ * 没有引入测试框架，直接运行 main()，任何一项不符合预期都会抛出 AssertionError
+ */
+public class ResponseStreamingTest {
+
+    // 远大于 Socket 缓冲区，服务器不可能在客户端不读的情况下全部写完
+    private static final int BODY_SIZE = 64 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        publisherBackpressureReachesSocket(false);
+        publisherBackpressureReachesSocket(true);
+        smallBodyIsBuffered();
+        System.out.println("ResponseStreamingTest 全部通过");
+    }
+
+    /**
+     * 订阅者停止请求数据后，服务器写不出去，整个响应体不会进入客户端内存；
+     * 之后读完响应体，连接回到连接池被下一个请求复用
+     */
+    private static void publisherBackpressureReachesSocket(boolean chunked) throws Exception {
+        AtomicLong written = new AtomicLong();
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket server = serve(chunked, written, connections)) {
+            OkHttpClient client = new OkHttpClient.Builder().build();
+            Response response = client.newCall(request(server)).execute();
+            check(response.body().bufferedBytes() == null, "大响应体不应读入内存");
+
+            CountDownLatch firstChunk = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicLong received = new AtomicLong();
+            Flow.Subscription[] subscription = new Flow.Subscription[1];
+            response.body().publisher().subscribe(new Flow.Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    subscription[0] = s;
+                    s.request(1);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    received.addAndGet(item.remaining());
+                    firstChunk.countDown();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    t.printStackTrace();
+                    done.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    done.countDown();
+                }
+            });
+            check(firstChunk.await(5, TimeUnit.SECONDS), "没有收到第一块数据");
+
+            // 没有需求时客户端不读 Socket，服务器很快被 TCP 流控阻塞
+            Thread.sleep(500);
+            long stalled = written.get();
+            Thread.sleep(500);
+            check(written.get() == stalled, "服务器仍在写入: " + stalled + " -> " + written.get());
+            check(stalled < BODY_SIZE, "服务器已经写完了整个响应体");
+
+            subscription[0].request(Long.MAX_VALUE);
+            check(done.await(30, TimeUnit.SECONDS), "响应体没有读完");
+            check(received.get() == BODY_SIZE, "收到 " + received.get() + " 字节");
+
+            Response second = client.newCall(request(server)).execute();
+            second.body().close();
+            check(connections.get() == 1, "连接没有复用: " + connections.get());
+        }
+    }
+
+    /**
+     * 小响应体仍然读入内存，不需要关闭也会释放连接
+     */
+    private static void smallBodyIsBuffered() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            AtomicInteger connections = new AtomicInteger();
+            accept(server, connections, socket -> {
+                byte[] body = "hello".getBytes(StandardCharsets.US_ASCII);
+                OutputStream out = socket.getOutputStream();
+                while (skipRequest(socket.getInputStream())) {
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                    out.flush();
+                }
+            });
+            OkHttpClient client = new OkHttpClient.Builder().build();
+            for (int i = 0; i < 2; i++) {
+                Response response = client.newCall(request(server)).execute();
+                check(response.body().bufferedBytes() != null, "小响应体应读入内存");
+            }
+            check(connections.get() == 1, "连接没有复用: " + connections.get());
+        }
+    }
+
+    /**
+     * 对每个请求返回 BODY_SIZE 字节的响应体，记录已经写出的字节数
+     */
+    private static ServerSocket serve(boolean chunked, AtomicLong written, AtomicInteger connections)
+            throws IOException {
+        ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        accept(server, connections, socket -> {
+            OutputStream out = socket.getOutputStream();
+            byte[] block = new byte[16 * 1024];
+            while (skipRequest(socket.getInputStream())) {
+                String framing = chunked ? "Transfer-Encoding: chunked" : "Content-Length: " + BODY_SIZE;
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\n" + framing + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+                for (int sent = 0; sent < BODY_SIZE; sent += block.length) {
+                    if (chunked) {
+                        out.write((Integer.toHexString(block.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    }
+                    out.write(block);
+                    if (chunked) {
+                        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                    }
+                    written.addAndGet(block.length);
+                }
+                if (chunked) {
+                    out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                }
+                out.flush();
+            }
+        });
+        return server;
+    }
+
+    private interface Handler {
+        void handle(Socket socket) throws IOException;
+    }
+
+    private static void accept(ServerSocket server, AtomicInteger connections, Handler handler) {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread connection = new Thread(() -> {
+                        try (Socket s = socket) {
+                            handler.handle(s);
+                        } catch (IOException ignored) {
+                        }
+                    });
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 读到请求头结束的空行，连接关闭时返回 false
+     */
+    private static boolean skipRequest(InputStream in) throws IOException {
+        int lineLength = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (lineLength == 0) {
+                    return true;
+                }
+                lineLength = 0;
+            } else if (b != '\r') {
+                lineLength++;
+            }
+        }
+        return false;
+    }
+
+    private static Request request(ServerSocket server) {
+        return new Request.Builder().url("http://127.0.0.1:" + server.getLocalPort() + "/").build();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}